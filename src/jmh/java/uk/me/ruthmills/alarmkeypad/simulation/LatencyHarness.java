@@ -0,0 +1,157 @@
+package uk.me.ruthmills.alarmkeypad.simulation;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import uk.me.ruthmills.alarmkeypad.AlarmKeypadApplication;
+
+/**
+ * Times the keypad end to end on the simulated board, and prints percentiles
+ * for:
+ * <ul>
+ * <li>key down to the LEDs showing it,</li>
+ * <li>key down to the command reaching the alarm endpoint,</li>
+ * <li>a state pushed over REST to the LEDs showing it.</li>
+ * </ul>
+ *
+ * Run with: ./mvnw -P benchmark test-compile exec:exec
+ * -Dbenchmark.main=uk.me.ruthmills.alarmkeypad.simulation.LatencyHarness
+ * -Dbenchmark.args=200
+ *
+ * @author ruth
+ */
+public class LatencyHarness {
+
+	private static final int WARMUP_ITERATIONS = 20;
+	private static final long HOLD = 20L;
+	private static final long GAP = 20L;
+	private static final long TIMEOUT = 2000L;
+
+	private final SimulatedBoard board;
+	private final StubAlarmEndpoint stubAlarmEndpoint;
+	private final HttpClient httpClient = HttpClient.newHttpClient();
+	private final String baseUrl;
+
+	private LatencyHarness(ConfigurableApplicationContext context, int port) {
+		this.board = context.getBean(SimulatedBoard.class);
+		this.stubAlarmEndpoint = context.getBean(StubAlarmEndpoint.class);
+		this.baseUrl = "http://localhost:" + port;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int port = getFreePort();
+		ConfigurableApplicationContext context = SpringApplication.run(AlarmKeypadApplication.class,
+				"--spring.profiles.active=simulation", "--server.port=" + port, "--logging.level.root=WARN",
+				"--events.journal.file=target/latency-harness/events.journal",
+				"--command.journal.file=target/latency-harness/commands.journal",
+				"--clip.directory=target/latency-harness/clips");
+		try {
+			LatencyHarness harness = new LatencyHarness(context, port);
+			harness.keyToLed(WARMUP_ITERATIONS);
+			report("key -> LED", harness.keyToLed(iterations));
+			harness.keyToCommand(WARMUP_ITERATIONS / 4);
+			report("key -> command sent", harness.keyToCommand(iterations / 4));
+			harness.pushToLed(WARMUP_ITERATIONS);
+			report("REST push -> LED", harness.pushToLed(iterations));
+		} finally {
+			context.close();
+		}
+	}
+
+	private long[] keyToLed(int iterations) throws InterruptedException {
+		long[] latencies = new long[iterations * 2];
+		int count = 0;
+		for (int i = 0; i < iterations; i++) {
+			// Enter a digit, to light red, then delete it, to put red out.
+			count = record(latencies, count, pressAndWait('1', "Red LED", false));
+			count = record(latencies, count, pressAndWait('*', "Red LED", true));
+		}
+		return Arrays.copyOf(latencies, count);
+	}
+
+	private long[] keyToCommand(int iterations) throws InterruptedException {
+		long[] latencies = new long[iterations];
+		int count = 0;
+		for (int i = 0; i < iterations; i++) {
+			board.type("1234", HOLD, GAP);
+			long start = System.nanoTime();
+			board.pressKey('C');
+			ReceivedCommand command = stubAlarmEndpoint.waitForCommand("armed_home", start, TIMEOUT);
+			board.releaseKey('C');
+			count = record(latencies, count, command != null ? command.getTime() - start : -1L);
+			Thread.sleep(GAP);
+		}
+		return Arrays.copyOf(latencies, count);
+	}
+
+	private long[] pushToLed(int iterations) throws IOException, InterruptedException {
+		long[] latencies = new long[iterations * 2];
+		int count = 0;
+		for (int i = 0; i < iterations; i++) {
+			count = record(latencies, count, pushAndWait("armed_home", "Green LED"));
+			count = record(latencies, count, pushAndWait("disarmed", "Blue LED"));
+		}
+		return Arrays.copyOf(latencies, count);
+	}
+
+	private long pressAndWait(char key, String led, boolean high) throws InterruptedException {
+		long start = System.nanoTime();
+		board.pressKey(key);
+		PinChange change = board.waitForChange(led, high, start, TIMEOUT);
+		Thread.sleep(HOLD);
+		board.releaseKey(key);
+		Thread.sleep(GAP);
+		return change != null ? change.getTime() - start : -1L;
+	}
+
+	private long pushAndWait(String state, String led) throws IOException, InterruptedException {
+		HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/" + state))
+				.POST(HttpRequest.BodyPublishers.noBody()).build();
+		long start = System.nanoTime();
+		httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+		// The LEDs are active low.
+		PinChange change = board.waitForChange(led, false, start, TIMEOUT);
+		Thread.sleep(GAP);
+		return change != null ? change.getTime() - start : -1L;
+	}
+
+	private static int record(long[] latencies, int count, long latency) {
+		if (latency < 0L) {
+			System.out.println("Timed out waiting for the keypad");
+			return count;
+		}
+		latencies[count] = latency;
+		return count + 1;
+	}
+
+	private static void report(String name, long[] latencies) {
+		Arrays.sort(latencies);
+		if (latencies.length == 0) {
+			System.out.println(name + ": no samples");
+			return;
+		}
+		System.out.println(String.format("%-20s n=%-5d p50=%8.1fus p90=%8.1fus p99=%8.1fus max=%8.1fus", name,
+				latencies.length, percentile(latencies, 0.5d), percentile(latencies, 0.9d),
+				percentile(latencies, 0.99d), latencies[latencies.length - 1] / 1000d));
+	}
+
+	private static double percentile(long[] sorted, double fraction) {
+		int index = (int) Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(index, 0)] / 1000d;
+	}
+
+	private static int getFreePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+}
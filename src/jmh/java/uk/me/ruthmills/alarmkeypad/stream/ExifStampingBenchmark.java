@@ -0,0 +1,97 @@
+package uk.me.ruthmills.alarmkeypad.stream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.ImageWriteException;
+import org.apache.commons.imaging.Imaging;
+import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
+import org.apache.commons.imaging.formats.jpeg.exif.ExifRewriter;
+import org.apache.commons.imaging.formats.tiff.TiffImageMetadata;
+import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputDirectory;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.me.ruthmills.alarmkeypad.model.AlarmState;
+
+/**
+ * Stamping a frame with its timestamp and the alarm state, per frame.
+ *
+ * @author ruth
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ExifStampingBenchmark {
+
+	private static final int INPUT_BUFFER_SIZE = 16384;
+
+	private FrameCorpus corpus;
+	private FramePool framePool;
+	private ByteBuffer output;
+	private int index;
+
+	@Setup
+	public void setUp() throws IOException {
+		corpus = FrameCorpus.load();
+		framePool = new FramePool(false, 4);
+		output = ByteBuffer.allocate(FramePool.MAX_SIZE);
+	}
+
+	/**
+	 * The original metadata parse and lossy EXIF rewrite.
+	 */
+	@Benchmark
+	public byte[] exifRewriter() throws ImageReadException, ImageWriteException, IOException {
+		byte[] imageBytes = corpus.get(index++);
+		JpegImageMetadata imageMetadata = (JpegImageMetadata) Imaging.getMetadata(imageBytes);
+		TiffImageMetadata exif = imageMetadata.getExif();
+		TiffOutputSet outputSet = exif.getOutputSet();
+		final TiffOutputDirectory exifDirectory = outputSet.getOrCreateExifDirectory();
+		exifDirectory.add(ExifTagConstants.EXIF_TAG_OWNER_NAME, Long.toString(System.currentTimeMillis()));
+		try (ByteArrayOutputStream exifOutputStream = new ByteArrayOutputStream(INPUT_BUFFER_SIZE)) {
+			new ExifRewriter().updateExifMetadataLossy(imageBytes, exifOutputStream, outputSet);
+			return exifOutputStream.toByteArray();
+		}
+	}
+
+	@Benchmark
+	public int exifStamper() {
+		byte[] image = corpus.get(index++);
+		return ExifStamper.stamp(image, 0, image.length, System.currentTimeMillis(), AlarmState.ARMED_AWAY, output);
+	}
+
+	/**
+	 * Stamping into a pooled frame, as the camera stream does.
+	 */
+	@Benchmark
+	public int exifStamperPooled() {
+		byte[] image = corpus.get(index++);
+		long timestamp = System.currentTimeMillis();
+		Frame frame = framePool.acquire(ExifStamper.getStampedLength(image, 0, image.length), timestamp,
+				System.nanoTime(), AlarmState.ARMED_AWAY);
+		try {
+			frame.setLength(ExifStamper.stamp(image, 0, image.length, timestamp, AlarmState.ARMED_AWAY,
+					frame.getBuffer()));
+			return frame.getLength();
+		} finally {
+			frame.release();
+		}
+	}
+}
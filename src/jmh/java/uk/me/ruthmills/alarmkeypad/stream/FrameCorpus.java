@@ -0,0 +1,75 @@
+package uk.me.ruthmills.alarmkeypad.stream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The JPEG frames in src/test/resources/frames, for the benchmarks to work on.
+ * Drop more frames captured from the cameras in there to widen the corpus.
+ *
+ * @author ruth
+ */
+class FrameCorpus {
+
+	private final List<byte[]> frames;
+
+	private FrameCorpus(List<byte[]> frames) {
+		this.frames = frames;
+	}
+
+	static FrameCorpus load() throws IOException {
+		try {
+			Path directory = Paths.get(FrameCorpus.class.getResource("/frames").toURI());
+			List<byte[]> frames = new ArrayList<>();
+			try (Stream<Path> paths = Files.list(directory)) {
+				for (Path path : paths.filter(path -> path.toString().endsWith(".jpg")).sorted()
+						.collect(Collectors.toList())) {
+					frames.add(Files.readAllBytes(path));
+				}
+			}
+			if (frames.isEmpty()) {
+				throw new IOException("No frames in " + directory);
+			}
+			return new FrameCorpus(frames);
+		} catch (URISyntaxException ex) {
+			throw new IOException(ex);
+		}
+	}
+
+	byte[] get(int index) {
+		return frames.get(index % frames.size());
+	}
+
+	/**
+	 * Build an MJPEG multipart stream, as sent by the camera.
+	 *
+	 * @param frameCount    The number of frames, cycling through the corpus.
+	 * @param contentLength Whether the part headers have a Content-Length.
+	 * @return The stream.
+	 * @throws IOException Never.
+	 */
+	byte[] toMultipart(int frameCount, boolean contentLength) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		for (int i = 0; i < frameCount; i++) {
+			byte[] frame = get(i);
+			StringBuilder header = new StringBuilder("--boundarydonotcross\r\nContent-Type: image/jpeg\r\n");
+			if (contentLength) {
+				header.append("Content-Length: ").append(frame.length).append("\r\n");
+			}
+			header.append("X-Timestamp: 1603000000.000000\r\n\r\n");
+			outputStream.write(header.toString().getBytes(StandardCharsets.US_ASCII));
+			outputStream.write(frame);
+			outputStream.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+		}
+		return outputStream.toByteArray();
+	}
+}
@@ -0,0 +1,96 @@
+package uk.me.ruthmills.alarmkeypad.stream;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JPEG boundary extraction from the camera's multipart stream, per frame.
+ *
+ * @author ruth
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(FrameExtractionBenchmark.FRAMES)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FrameExtractionBenchmark {
+
+	static final int FRAMES = 32;
+	private static final int INPUT_BUFFER_SIZE = 16384;
+
+	private byte[] withContentLength;
+	private byte[] withoutContentLength;
+
+	@Setup
+	public void setUp() throws IOException {
+		FrameCorpus corpus = FrameCorpus.load();
+		withContentLength = corpus.toMultipart(FRAMES, true);
+		withoutContentLength = corpus.toMultipart(FRAMES, false);
+	}
+
+	/**
+	 * The original extraction loop: one read() and one write() per byte.
+	 */
+	@Benchmark
+	public long perByteRead() throws IOException {
+		long total = 0L;
+		try (InputStream inputStream = new BufferedInputStream(new ByteArrayInputStream(withoutContentLength),
+				INPUT_BUFFER_SIZE)) {
+			int prev = 0;
+			int cur = 0;
+			ByteArrayOutputStream byteArrayOutputStream = null;
+			while ((cur = inputStream.read()) >= 0) {
+				if (prev == 0xFF && cur == 0xD8) {
+					byteArrayOutputStream = new ByteArrayOutputStream(INPUT_BUFFER_SIZE);
+					byteArrayOutputStream.write((byte) prev);
+				}
+				if (byteArrayOutputStream != null) {
+					byteArrayOutputStream.write((byte) cur);
+					if (prev == 0xFF && cur == 0xD9) {
+						total += byteArrayOutputStream.toByteArray().length;
+						byteArrayOutputStream = null;
+					}
+				}
+				prev = cur;
+			}
+		}
+		return total;
+	}
+
+	@Benchmark
+	public long contentLength() throws IOException {
+		return extract(withContentLength);
+	}
+
+	@Benchmark
+	public long markerScan() throws IOException {
+		return extract(withoutContentLength);
+	}
+
+	private static long extract(byte[] stream) throws IOException {
+		long total = 0L;
+		JpegFrameExtractor extractor = new JpegFrameExtractor(new ByteArrayInputStream(stream));
+		while (extractor.next()) {
+			total += extractor.getLength();
+		}
+		return total;
+	}
+}
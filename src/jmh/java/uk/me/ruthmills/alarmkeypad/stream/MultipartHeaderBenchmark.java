@@ -0,0 +1,52 @@
+package uk.me.ruthmills.alarmkeypad.stream;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialising the multipart header sent before each frame to each viewer.
+ *
+ * @author ruth
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MultipartHeaderBenchmark {
+
+	private static final String NL = "\r\n";
+	private static final String HEAD = NL + NL + MultipartHeader.BOUNDARY + NL + "Content-Type: image/jpeg" + NL
+			+ "Content-Length: ";
+
+	private final ByteBuffer buffer = ByteBuffer.allocate(Frame.HEADROOM);
+	private int length = 134502;
+
+	/**
+	 * The original header, built as a string for each frame and each viewer.
+	 */
+	@Benchmark
+	public byte[] stringConcat() {
+		return (HEAD + length++ + NL + NL).getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * The header written once per frame into the frame's headroom.
+	 */
+	@Benchmark
+	public int preEncoded() {
+		return MultipartHeader.encode(buffer, Frame.HEADROOM, length++);
+	}
+}
@@ -0,0 +1,97 @@
+package uk.me.ruthmills.alarmkeypad.animation;
+
+import uk.me.ruthmills.alarmkeypad.model.BuzzerPattern;
+
+/**
+ * A sequence of keyframes for the LEDs. An animation either plays once and
+ * holds its last keyframe, or loops back to a given keyframe forever. It may
+ * have a buzzer pattern to sound while it plays.
+ *
+ * @author ruth
+ */
+public class Animation {
+
+	private final String name;
+	private final int loopFrom;
+	private final Keyframe[] keyframes;
+	private final BuzzerPattern sound;
+
+	/**
+	 * Create an animation.
+	 *
+	 * @param name      The name of the animation, for logging.
+	 * @param loopFrom  The keyframe to loop back to after the last one, or -1 to
+	 *                  play once.
+	 * @param keyframes The keyframes.
+	 */
+	public Animation(String name, int loopFrom, Keyframe... keyframes) {
+		this(name, loopFrom, null, keyframes);
+	}
+
+	private Animation(String name, int loopFrom, BuzzerPattern sound, Keyframe[] keyframes) {
+		if (keyframes.length == 0 || loopFrom >= keyframes.length) {
+			throw new IllegalArgumentException("Invalid animation: " + name);
+		}
+		this.name = name;
+		this.loopFrom = loopFrom;
+		this.keyframes = keyframes;
+		this.sound = sound;
+	}
+
+	public static Animation once(String name, Keyframe... keyframes) {
+		return new Animation(name, -1, keyframes);
+	}
+
+	public static Animation loop(String name, Keyframe... keyframes) {
+		return new Animation(name, 0, keyframes);
+	}
+
+	/**
+	 * Get a copy of the animation that sounds a buzzer pattern while it plays.
+	 *
+	 * @param sound The buzzer pattern.
+	 * @return The animation with the sound.
+	 */
+	public Animation withSound(BuzzerPattern sound) {
+		return new Animation(name, loopFrom, sound, keyframes);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isLoop() {
+		return loopFrom >= 0;
+	}
+
+	/**
+	 * The buzzer pattern to sound while the animation plays.
+	 *
+	 * @return The buzzer pattern, or null if the animation is silent.
+	 */
+	public BuzzerPattern getSound() {
+		return sound;
+	}
+
+	public Keyframe getKeyframe(int index) {
+		return keyframes[index];
+	}
+
+	/**
+	 * Get the keyframe that follows a given one.
+	 *
+	 * @param index The index of the keyframe.
+	 * @return The index of the next keyframe, or -1 if the animation has ended.
+	 */
+	public int getNextIndex(int index) {
+		if (index + 1 < keyframes.length) {
+			return index + 1;
+		}
+		return loopFrom;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,137 @@
+package uk.me.ruthmills.alarmkeypad.animation;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import uk.me.ruthmills.alarmkeypad.service.BuzzerService;
+import uk.me.ruthmills.alarmkeypad.service.LedService;
+
+/**
+ * Plays animations on the LEDs, driven by a timer rather than by sleeping, and
+ * starts and stops the sound that goes with each.
+ *
+ * Each keyframe is scheduled for a fixed time after the animation started, so
+ * a late timer doesn't put later keyframes out. Playing an animation stops the
+ * current one straight away, part way through a keyframe if need be. When an
+ * animation that plays once has finished, the listener is told, so that it can
+ * choose what to show next.
+ *
+ * @author ruth
+ */
+public class Animator {
+
+	private static final long NANOS_PER_MILLI = 1000000L;
+
+	private final ScheduledExecutorService executor;
+	private final LedService ledService;
+	private final BuzzerService buzzerService;
+	private final Runnable finishedListener;
+
+	private Animation animation;
+	private int index;
+	private long nextTime;
+	private int generation;
+	private ScheduledFuture<?> future;
+
+	/**
+	 * Create an animator.
+	 *
+	 * @param executor         The executor to time keyframes with.
+	 * @param ledService       The LEDs.
+	 * @param buzzerService    The buzzer.
+	 * @param finishedListener Called when an animation that plays once has
+	 *                         finished.
+	 */
+	public Animator(ScheduledExecutorService executor, LedService ledService, BuzzerService buzzerService,
+			Runnable finishedListener) {
+		this.executor = executor;
+		this.ledService = ledService;
+		this.buzzerService = buzzerService;
+		this.finishedListener = finishedListener;
+	}
+
+	/**
+	 * Play an animation from the start, stopping the current one. The first
+	 * keyframe is shown before this returns.
+	 *
+	 * @param animation The animation.
+	 */
+	public synchronized void play(Animation animation) {
+		if (future != null) {
+			future.cancel(false);
+			future = null;
+		}
+		generation++;
+		stopSound();
+		this.animation = animation;
+		if (animation.getSound() != null) {
+			buzzerService.play(animation.getSound());
+		}
+		index = 0;
+		nextTime = System.nanoTime();
+		show(generation);
+	}
+
+	/**
+	 * Switch to an animation, unless it is already playing or holding its last
+	 * keyframe. An animation that plays once is left to finish first.
+	 *
+	 * @param animation The animation.
+	 */
+	public synchronized void switchTo(Animation animation) {
+		if (this.animation != animation && (this.animation == null || this.animation.isLoop() || future == null)) {
+			play(animation);
+		}
+	}
+
+	public synchronized Animation getAnimation() {
+		return animation;
+	}
+
+	/**
+	 * Stop animating, leaving the LEDs as they are and the sound stopped.
+	 */
+	public synchronized void stop() {
+		if (future != null) {
+			future.cancel(false);
+			future = null;
+		}
+		generation++;
+		stopSound();
+		animation = null;
+	}
+
+	private void stopSound() {
+		if (animation != null && animation.getSound() != null) {
+			buzzerService.stop(animation.getSound());
+		}
+	}
+
+	private synchronized void show(int generation) {
+		if (generation != this.generation) {
+			// Stopped by another animation since being scheduled.
+			return;
+		}
+		Keyframe keyframe = animation.getKeyframe(index);
+		ledService.setLeds(keyframe.isRed(), keyframe.isAmber(), keyframe.isGreen(), keyframe.isBlue());
+		nextTime += keyframe.getDuration() * NANOS_PER_MILLI;
+		index = animation.getNextIndex(index);
+		long delay = nextTime - System.nanoTime();
+		if (index >= 0) {
+			future = executor.schedule(() -> show(generation), delay, TimeUnit.NANOSECONDS);
+		} else {
+			future = executor.schedule(() -> finished(generation), delay, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private void finished(int generation) {
+		synchronized (this) {
+			if (generation != this.generation) {
+				return;
+			}
+			future = null;
+		}
+		finishedListener.run();
+	}
+}
@@ -0,0 +1,52 @@
+package uk.me.ruthmills.alarmkeypad.animation;
+
+/**
+ * One step of an {@link Animation}: the LEDs to show, and for how long.
+ *
+ * @author ruth
+ */
+public class Keyframe {
+
+	private final long duration;
+	private final boolean red;
+	private final boolean amber;
+	private final boolean green;
+	private final boolean blue;
+
+	/**
+	 * Create a keyframe.
+	 *
+	 * @param duration How long to show the keyframe for, in milliseconds.
+	 * @param red      Whether the red LED is on.
+	 * @param amber    Whether the amber LED is on.
+	 * @param green    Whether the green LED is on.
+	 * @param blue     Whether the blue LED is on.
+	 */
+	public Keyframe(long duration, boolean red, boolean amber, boolean green, boolean blue) {
+		this.duration = duration;
+		this.red = red;
+		this.amber = amber;
+		this.green = green;
+		this.blue = blue;
+	}
+
+	public long getDuration() {
+		return duration;
+	}
+
+	public boolean isRed() {
+		return red;
+	}
+
+	public boolean isAmber() {
+		return amber;
+	}
+
+	public boolean isGreen() {
+		return green;
+	}
+
+	public boolean isBlue() {
+		return blue;
+	}
+}
@@ -0,0 +1,65 @@
+package uk.me.ruthmills.alarmkeypad.command;
+
+/**
+ * Stops requests to an endpoint after repeated failures, so that commands fail
+ * fast while it is down. After a while a single trial request is let through,
+ * and the breaker closes again if it succeeds.
+ * 
+ * @author ruth
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final int failureThreshold;
+	private final long openTime;
+
+	private State state = State.CLOSED;
+	private int failures;
+	private long openedTime;
+
+	/**
+	 * Create a circuit breaker.
+	 * 
+	 * @param failureThreshold The number of failures in a row to open after.
+	 * @param openTime         How long to stay open for, in nanoseconds.
+	 */
+	public CircuitBreaker(int failureThreshold, long openTime) {
+		this.failureThreshold = failureThreshold;
+		this.openTime = openTime;
+	}
+
+	/**
+	 * Check whether a request may be made.
+	 * 
+	 * @return True if the request may be made.
+	 */
+	public synchronized boolean allowRequest() {
+		if (state == State.OPEN) {
+			if (System.nanoTime() - openedTime < openTime) {
+				return false;
+			}
+			state = State.HALF_OPEN;
+		}
+		return true;
+	}
+
+	public synchronized void recordSuccess() {
+		failures = 0;
+		state = State.CLOSED;
+	}
+
+	public synchronized void recordFailure() {
+		failures++;
+		if (state == State.HALF_OPEN || failures >= failureThreshold) {
+			state = State.OPEN;
+			openedTime = System.nanoTime();
+		}
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+}
@@ -0,0 +1,256 @@
+package uk.me.ruthmills.alarmkeypad.command;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.me.ruthmills.alarmkeypad.model.Command;
+
+/**
+ * Append-only journal of commands for the alarm endpoint, so that commands
+ * still to be sent survive a restart.
+ *
+ * Each command is appended when it is dispatched, and a completion record is
+ * appended once it has been sent or given up on. Records are buffered until
+ * {@link #commit()}, which writes them in one go, so a burst of commands costs
+ * a single write. Only new commands are forced to disk: completion records are
+ * left for the OS to write back, as losing one in a power cut only means a
+ * command is replayed again, within its replay age. Once the file grows past a
+ * threshold it is rewritten with just the commands still pending, so it stays
+ * small.
+ *
+ * Each record is length-prefixed and checksummed. A torn record at the end
+ * of the file, from a power cut mid-write, is discarded on recovery.
+ *
+ * Not thread safe: the journal is only used by one thread.
+ *
+ * @author ruth
+ */
+public class CommandJournal implements Closeable {
+
+	private static final byte APPEND = 1;
+	private static final byte COMPLETE = 2;
+	private static final int MAX_RECORD_SIZE = 4096;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final Path path;
+	private final long compactSize;
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private final CRC32 crc = new CRC32();
+	private final Map<Long, Command> pending = new TreeMap<>();
+	private FileChannel channel;
+	private long lastSequence;
+	private boolean appended;
+
+	private final Logger logger = LoggerFactory.getLogger(CommandJournal.class);
+
+	/**
+	 * Create a journal.
+	 *
+	 * @param path        The journal file.
+	 * @param compactSize The file size to compact the journal at, in bytes.
+	 */
+	public CommandJournal(Path path, long compactSize) {
+		this.path = path;
+		this.compactSize = compactSize;
+	}
+
+	/**
+	 * Open the journal, reading back any commands still pending from before.
+	 *
+	 * @return The pending commands, in sequence order.
+	 * @throws IOException If the journal could not be read.
+	 */
+	public List<Command> recover() throws IOException {
+		Path directory = path.toAbsolutePath().getParent();
+		if (directory != null) {
+			Files.createDirectories(directory);
+		}
+		if (Files.exists(path)) {
+			read();
+		}
+		// Start afresh with just the pending commands.
+		rewrite();
+		return new ArrayList<>(pending.values());
+	}
+
+	/**
+	 * The highest sequence number in the journal.
+	 *
+	 * @return The sequence number, or zero if there have been no commands.
+	 */
+	public long getLastSequence() {
+		return lastSequence;
+	}
+
+	public void append(Command command) throws IOException {
+		byte[] state = command.getState().getBytes(StandardCharsets.UTF_8);
+		byte[] code = command.getCode().getBytes(StandardCharsets.UTF_8);
+		int length = 1 + 8 + 8 + 2 + state.length + 2 + code.length;
+		ensureCapacity(length);
+		int start = startRecord(length);
+		buffer.put(APPEND).putLong(command.getSequence()).putLong(command.getCreatedTime());
+		buffer.putShort((short) state.length).put(state).putShort((short) code.length).put(code);
+		endRecord(start);
+		pending.put(command.getSequence(), command);
+		lastSequence = Math.max(lastSequence, command.getSequence());
+		appended = true;
+	}
+
+	public void complete(long sequence) throws IOException {
+		if (pending.remove(sequence) != null) {
+			ensureCapacity(1 + 8);
+			int start = startRecord(1 + 8);
+			buffer.put(COMPLETE).putLong(sequence);
+			endRecord(start);
+		}
+	}
+
+	/**
+	 * Write out everything appended since the last commit, forcing it to disk if
+	 * it includes any new commands.
+	 *
+	 * @throws IOException If the journal could not be written.
+	 */
+	public void commit() throws IOException {
+		flush();
+		if (appended) {
+			channel.force(false);
+			appended = false;
+		}
+		if (channel.size() > compactSize) {
+			rewrite();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			try {
+				commit();
+			} finally {
+				channel.close();
+				channel = null;
+			}
+		}
+	}
+
+	private void read() throws IOException {
+		try (FileChannel input = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer data = ByteBuffer.allocate((int) Math.min(input.size(), Integer.MAX_VALUE));
+			while (data.hasRemaining() && input.read(data) >= 0) {
+			}
+			data.flip();
+			while (data.remaining() >= 8) {
+				int length = data.getInt(data.position());
+				if (length <= 0 || length > MAX_RECORD_SIZE || data.remaining() < 4 + length + 4) {
+					break;
+				}
+				crc.reset();
+				crc.update(data.array(), data.position() + 4, length);
+				if ((int) crc.getValue() != data.getInt(data.position() + 4 + length)) {
+					break;
+				}
+				data.getInt();
+				readRecord(data);
+				data.getInt();
+			}
+			if (data.hasRemaining()) {
+				logger.warn("Discarded " + data.remaining() + " bytes of torn or corrupt command journal");
+			}
+		}
+	}
+
+	private void readRecord(ByteBuffer data) {
+		byte type = data.get();
+		long sequence = data.getLong();
+		lastSequence = Math.max(lastSequence, sequence);
+		if (type == APPEND) {
+			long createdTime = data.getLong();
+			String state = getString(data);
+			String code = getString(data);
+			pending.put(sequence, new Command(sequence, state, code, createdTime));
+		} else {
+			pending.remove(sequence);
+		}
+	}
+
+	private static String getString(ByteBuffer data) {
+		byte[] bytes = new byte[data.getShort()];
+		data.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private void rewrite() throws IOException {
+		if (channel != null) {
+			channel.close();
+		}
+		// Write the pending commands to a new file, then swap it in.
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		Files.deleteIfExists(temp);
+		channel = open(temp);
+		buffer.clear();
+		for (Command command : new ArrayList<>(pending.values())) {
+			append(command);
+		}
+		flush();
+		channel.force(false);
+		channel.close();
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		channel = open(path);
+		channel.position(channel.size());
+		appended = false;
+	}
+
+	private static FileChannel open(Path path) throws IOException {
+		// The journal holds codes, so only the owner may read it.
+		if (!Files.exists(path) && FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+			Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		}
+		return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private void ensureCapacity(int length) throws IOException {
+		if (8 + length > MAX_RECORD_SIZE) {
+			throw new IOException("Command too long for the journal");
+		}
+		if (buffer.remaining() < 8 + length) {
+			flush();
+		}
+	}
+
+	private int startRecord(int length) {
+		buffer.putInt(length);
+		return buffer.position();
+	}
+
+	private void endRecord(int start) {
+		crc.reset();
+		crc.update(buffer.array(), start, buffer.position() - start);
+		buffer.putInt((int) crc.getValue());
+	}
+}
@@ -0,0 +1,98 @@
+package uk.me.ruthmills.alarmkeypad.command;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a connection to the alarm endpoint open and ready in the pool, so a
+ * command doesn't have to wait for the TCP connection, or the TLS handshake if
+ * the endpoint is https.
+ *
+ * Each time it runs, connections that have been idle too long are closed,
+ * before the server times them out, and a new one is opened if there is no
+ * idle connection left. No request is sent to open a connection.
+ *
+ * @author ruth
+ */
+public class ConnectionWarmer implements Runnable {
+
+	private final PoolingHttpClientConnectionManager connectionManager;
+	private final HttpRoute route;
+	private final int connectTimeout;
+	private final long maxIdleTime;
+
+	private final Logger logger = LoggerFactory.getLogger(ConnectionWarmer.class);
+
+	/**
+	 * Create a connection warmer.
+	 *
+	 * @param connectionManager The connection pool.
+	 * @param endpoint          The URL of the endpoint.
+	 * @param connectTimeout    The connect timeout in milliseconds.
+	 * @param maxIdleTime       How long to keep an idle connection, in
+	 *                          milliseconds.
+	 */
+	public ConnectionWarmer(PoolingHttpClientConnectionManager connectionManager, String endpoint,
+			int connectTimeout, long maxIdleTime) {
+		this.connectionManager = connectionManager;
+		this.route = getRoute(URI.create(endpoint));
+		this.connectTimeout = connectTimeout;
+		this.maxIdleTime = maxIdleTime;
+	}
+
+	@Override
+	public void run() {
+		connectionManager.closeExpiredConnections();
+		connectionManager.closeIdleConnections(maxIdleTime, TimeUnit.MILLISECONDS);
+		if (connectionManager.getStats(route).getAvailable() > 0) {
+			return;
+		}
+		try {
+			warm();
+		} catch (IOException | ExecutionException | TimeoutException ex) {
+			logger.debug("Failed to open connection to " + route.getTargetHost() + ": " + ex);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void warm() throws IOException, ExecutionException, TimeoutException, InterruptedException {
+		ConnectionRequest request = connectionManager.requestConnection(route, null);
+		HttpClientConnection connection = request.get(connectTimeout, TimeUnit.MILLISECONDS);
+		boolean open = false;
+		try {
+			if (!connection.isOpen()) {
+				HttpClientContext context = HttpClientContext.create();
+				connectionManager.connect(connection, route, connectTimeout, context);
+				connectionManager.routeComplete(connection, route, context);
+				logger.debug("Opened connection to " + route.getTargetHost());
+			}
+			open = true;
+		} finally {
+			// Put the connection back in the pool for the next command.
+			if (!open) {
+				connection.close();
+			}
+			connectionManager.releaseConnection(connection, null, open ? maxIdleTime : 0L, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private static HttpRoute getRoute(URI uri) {
+		// The same route the client will plan for requests, so they find this connection.
+		boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+		int port = uri.getPort() > 0 ? uri.getPort() : (secure ? 443 : 80);
+		return new HttpRoute(new HttpHost(uri.getHost(), port, uri.getScheme()), null, secure);
+	}
+}
@@ -0,0 +1,54 @@
+package uk.me.ruthmills.alarmkeypad.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * The cameras to proxy, configured as a list:
+ * 
+ * <pre>
+ * camera.sources[0].name=front
+ * camera.sources[0].url=http://...
+ * </pre>
+ * 
+ * @author ruth
+ */
+@Component
+@ConfigurationProperties(prefix = "camera")
+public class CameraProperties {
+
+	private List<Source> sources = new ArrayList<>();
+
+	public List<Source> getSources() {
+		return sources;
+	}
+
+	public void setSources(List<Source> sources) {
+		this.sources = sources;
+	}
+
+	public static class Source {
+
+		private String name;
+		private String url;
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		public void setUrl(String url) {
+			this.url = url;
+		}
+	}
+}
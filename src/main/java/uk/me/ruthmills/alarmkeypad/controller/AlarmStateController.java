@@ -1,12 +1,24 @@
 package uk.me.ruthmills.alarmkeypad.controller;
 
+import java.io.IOException;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
+import uk.me.ruthmills.alarmkeypad.feed.StateSnapshot;
 import uk.me.ruthmills.alarmkeypad.service.AlarmStateService;
+import uk.me.ruthmills.alarmkeypad.service.StateFeedService;
 
 @RestController
 public class AlarmStateController {
@@ -14,6 +26,9 @@ public class AlarmStateController {
 	@Autowired
 	private AlarmStateService alarmStateService;
 
+	@Autowired
+	private StateFeedService stateFeedService;
+
 	@PostMapping(value = "/armed_away")
 	@ResponseStatus(value = HttpStatus.OK)
 	public void armedAway() {
@@ -55,4 +70,45 @@ public class AlarmStateController {
 	public void invalidCode() {
 		alarmStateService.invalidCode();
 	}
+
+	/**
+	 * Get the keypad state, as last serialised.
+	 * 
+	 * @param webRequest The request.
+	 * @param response   The response.
+	 * @throws IOException If the state could not be written.
+	 */
+	@GetMapping(path = "/state", produces = MediaType.APPLICATION_JSON_VALUE)
+	public void getState(WebRequest webRequest, HttpServletResponse response) throws IOException {
+		StateSnapshot snapshot = stateFeedService.getSnapshot();
+		if (snapshot == null) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return;
+		}
+		response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+		if (webRequest.checkNotModified(snapshot.getETag())) {
+			return;
+		}
+		response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+		response.setContentLength(snapshot.getJson().length);
+		response.getOutputStream().write(snapshot.getJson());
+	}
+
+	/**
+	 * Get a feed of the keypad state, as server-sent events. The current state
+	 * is sent straight away, then each change to it. No request thread is held
+	 * for the life of the feed.
+	 * 
+	 * @param request  The request.
+	 * @param response The response.
+	 * @throws IOException If the feed could not be started.
+	 */
+	@GetMapping(path = "/state/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public void getStateEvents(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		response.setContentType(MediaType.TEXT_EVENT_STREAM_VALUE);
+		response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+		AsyncContext asyncContext = request.startAsync();
+		asyncContext.setTimeout(0L);
+		stateFeedService.addSubscriber(asyncContext);
+	}
 }
@@ -0,0 +1,44 @@
+package uk.me.ruthmills.alarmkeypad.controller;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import uk.me.ruthmills.alarmkeypad.model.JournalEvent;
+import uk.me.ruthmills.alarmkeypad.service.EventJournalService;
+
+/**
+ * Reads back the event journal.
+ * 
+ * @author ruth
+ */
+@RestController
+public class EventJournalController {
+
+	private static final int MAX_LIMIT = 10000;
+
+	@Autowired
+	private EventJournalService eventJournalService;
+
+	/**
+	 * Get the events in a time range, oldest first. To read a long range a page
+	 * at a time, pass the number of the last event read as after.
+	 * 
+	 * @param from  The earliest time, in nanoseconds since the epoch.
+	 * @param to    The latest time, in nanoseconds since the epoch.
+	 * @param after The event number to read from after.
+	 * @param limit The most events to return.
+	 * @return The events.
+	 */
+	@GetMapping(path = "/events", produces = MediaType.APPLICATION_JSON_VALUE)
+	public List<JournalEvent> getEvents(@RequestParam(name = "from", defaultValue = "0") long from,
+			@RequestParam(name = "to", defaultValue = "" + Long.MAX_VALUE) long to,
+			@RequestParam(name = "after", defaultValue = "0") long after,
+			@RequestParam(name = "limit", defaultValue = "1000") int limit) {
+		return eventJournalService.getEvents(from, to, after, Math.max(0, Math.min(limit, MAX_LIMIT)));
+	}
+}
@@ -1,30 +1,29 @@
 package uk.me.ruthmills.alarmkeypad.controller;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.URL;
-import java.net.URLConnection;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
-
-import org.apache.commons.imaging.ImageReadException;
-import org.apache.commons.imaging.ImageWriteException;
-import org.apache.commons.imaging.Imaging;
-import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
-import org.apache.commons.imaging.formats.jpeg.exif.ExifRewriter;
-import org.apache.commons.imaging.formats.tiff.TiffImageMetadata;
-import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants;
-import org.apache.commons.imaging.formats.tiff.write.TiffOutputDirectory;
-import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Value;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
-import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.WebRequest;
+
+import uk.me.ruthmills.alarmkeypad.model.CameraMetrics;
+import uk.me.ruthmills.alarmkeypad.service.MjpegStreamService;
+import uk.me.ruthmills.alarmkeypad.stream.Frame;
+import uk.me.ruthmills.alarmkeypad.stream.MultipartHeader;
 
 /**
  * MJPEG stream controller.
@@ -34,122 +33,195 @@ import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBo
 @Controller
 public class MjpegStreamController {
 
-	// MJPEG multipart boundary stuff.
-	private static final int INPUT_BUFFER_SIZE = 16384;
-	private static final String NL = "\r\n";
-	private static final String BOUNDARY = "--boundary";
-	private static final String HEAD = NL + NL + BOUNDARY + NL + "Content-Type: image/jpeg" + NL + "Content-Length: ";
-
-	private URLConnection conn;
-	private String nowFormatted;
+	private static final Pattern RELATIVE_TIME = Pattern.compile("-(\\d{1,9})(ms|s|m)?");
+	private static final Pattern ABSOLUTE_TIME = Pattern.compile("\\d{1,15}");
+	private static final String CONTENT_TYPE = "multipart/x-mixed-replace;boundary=" + MultipartHeader.BOUNDARY;
 
-	@Value("${streamURL}")
-	private String streamURL;
+	@Autowired
+	private MjpegStreamService mjpegStreamService;
 
-	private static final Logger logger = LoggerFactory.getLogger(MjpegStreamController.class);
+	/**
+	 * Get the MJPEG stream for the default camera.
+	 * 
+	 * @param fps      The maximum frame rate, if any.
+	 * @param adaptive Whether to skip frames to suit the viewer's connection.
+	 * @param from     The time to replay from, if any.
+	 * @param speed    The replay speed.
+	 * @param request  The request.
+	 * @param response The response.
+	 * @throws IOException If the stream could not be started.
+	 */
+	@GetMapping(path = "/mjpeg_stream", produces = CONTENT_TYPE)
+	public void getMjpegStream(@RequestParam(name = "fps", required = false) Double fps,
+			@RequestParam(name = "adaptive", defaultValue = "true") boolean adaptive,
+			@RequestParam(name = "from", required = false) String from,
+			@RequestParam(name = "speed", defaultValue = "1") double speed, HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		getMjpegStream(mjpegStreamService.getDefaultCamera(), fps, adaptive, from, speed, request, response);
+	}
 
 	/**
-	 * Get the MJPEG stream.
+	 * Get the MJPEG stream for a camera. The response is written asynchronously
+	 * with non-blocking I/O, so no request thread is held for the life of the
+	 * stream.
+	 * 
+	 * If a time to replay from is given, the stream starts with the recent
+	 * frames held in memory from that time, and carries on live once it has
+	 * caught up. The time is either relative to now, e.g. -30s, -500ms or -2m,
+	 * or in milliseconds since the epoch.
 	 * 
-	 * @return The MJPEG stream.
+	 * @param camera   The camera name.
+	 * @param fps      The maximum frame rate, if any.
+	 * @param adaptive Whether to skip frames to suit the viewer's connection.
+	 * @param from     The time to replay from, if any.
+	 * @param speed    The replay speed, where 1 is the original pacing.
+	 * @param request  The request.
+	 * @param response The response.
+	 * @throws IOException If the stream could not be started.
 	 */
-	@GetMapping(path = "/mjpeg_stream", produces = "multipart/x-mixed-replace;boundary=" + BOUNDARY)
-	public StreamingResponseBody getMjpegStream() {
-
-		return new StreamingResponseBody() {
-
-			@Override
-			public void writeTo(OutputStream outputStream) throws IOException {
-				try {
-					// Continue until the connection drops.
-					while (true) {
-						try (InputStream inputStream = openConnection()) {
-							int prev = 0;
-							int cur = 0;
-
-							// EOF is -1
-							ByteArrayOutputStream byteArrayOutputStream = null;
-							while ((inputStream != null) && ((cur = inputStream.read()) >= 0)) {
-								if (prev == 0xFF && cur == 0xD8) {
-									LocalDateTime now = LocalDateTime.now();
-									nowFormatted = Long.toString(now.toInstant(ZoneOffset.UTC).toEpochMilli());
-									byteArrayOutputStream = new ByteArrayOutputStream(INPUT_BUFFER_SIZE);
-									byteArrayOutputStream.write((byte) prev);
-								}
-								if (byteArrayOutputStream != null) {
-									byteArrayOutputStream.write((byte) cur);
-									if (prev == 0xFF && cur == 0xD9) {
-										byteArrayOutputStream.flush();
-										byte[] imageBytes = byteArrayOutputStream.toByteArray();
-										byteArrayOutputStream.close();
-										byteArrayOutputStream = null;
-										// the image is now available - read it
-										handleNewFrame(imageBytes, outputStream);
-									}
-								}
-								prev = cur;
-							}
-						} catch (Exception ex) {
-							logger.error("Failed to read stream", ex);
-							throw ex;
-						} finally {
-							try {
-								conn.getInputStream().close();
-							} finally {
-								conn.getOutputStream().close();
-							}
-						}
-					}
-				} catch (IOException ex) {
-					logger.error("I/O Exception when writing output stream", ex);
-					throw ex;
-				} catch (Exception ex) {
-					logger.error("Exception when writing output stream", ex);
-					throw new RuntimeException(ex);
-				}
+	@GetMapping(path = "/mjpeg_stream/{camera}", produces = CONTENT_TYPE)
+	public void getMjpegStream(@PathVariable("camera") String camera,
+			@RequestParam(name = "fps", required = false) Double fps,
+			@RequestParam(name = "adaptive", defaultValue = "true") boolean adaptive,
+			@RequestParam(name = "from", required = false) String from,
+			@RequestParam(name = "speed", defaultValue = "1") double speed, HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		if (!mjpegStreamService.hasCamera(camera)) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		Long fromTime = null;
+		if (from != null) {
+			fromTime = parseTime(from);
+			if (fromTime == null || !(speed > 0d)) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+				return;
 			}
-		};
+		}
+		response.setContentType(CONTENT_TYPE);
+		AsyncContext asyncContext = request.startAsync();
+		asyncContext.setTimeout(0L);
+		if (fromTime != null) {
+			mjpegStreamService.addReplayViewer(camera, asyncContext, fromTime, speed, fps != null ? fps : 0d,
+					adaptive);
+		} else {
+			mjpegStreamService.addViewer(camera, asyncContext, fps != null ? fps : 0d, adaptive);
+		}
 	}
 
-	private BufferedInputStream openConnection() throws IOException {
-		BufferedInputStream bufferedInputStream = null;
-		URL url = new URL(streamURL);
-		conn = url.openConnection();
-		conn.setReadTimeout(5000); // 5 seconds
-		conn.connect();
-		bufferedInputStream = new BufferedInputStream(conn.getInputStream(), INPUT_BUFFER_SIZE);
-		return bufferedInputStream;
+	/**
+	 * Get the latest frame from the default camera.
+	 * 
+	 * @param webRequest The request.
+	 * @param response   The response.
+	 * @throws IOException If the frame could not be written.
+	 */
+	@GetMapping(path = "/snapshot.jpg", produces = MediaType.IMAGE_JPEG_VALUE)
+	public void getSnapshot(WebRequest webRequest, HttpServletResponse response) throws IOException {
+		getSnapshot(mjpegStreamService.getDefaultCamera(), webRequest, response);
 	}
 
-	private void handleNewFrame(byte[] imageBytes, OutputStream outputStream)
-			throws ImageReadException, ImageWriteException, IOException {
-		try {
-			JpegImageMetadata imageMetadata = (JpegImageMetadata) Imaging.getMetadata(imageBytes);
-			TiffImageMetadata exif = imageMetadata.getExif();
-			TiffOutputSet outputSet = exif.getOutputSet();
-			final TiffOutputDirectory exifDirectory = outputSet.getOrCreateExifDirectory();
+	/**
+	 * Get the latest frame from a camera, from the frame cache.
+	 * 
+	 * @param camera     The camera name.
+	 * @param webRequest The request.
+	 * @param response   The response.
+	 * @throws IOException If the frame could not be written.
+	 */
+	@GetMapping(path = "/snapshot/{camera}.jpg", produces = MediaType.IMAGE_JPEG_VALUE)
+	public void getSnapshot(@PathVariable("camera") String camera, WebRequest webRequest,
+			HttpServletResponse response) throws IOException {
+		if (!mjpegStreamService.hasCamera(camera)) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		Frame frame = mjpegStreamService.getLatestFrame(camera);
+		if (frame == null) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return;
+		}
+		writeFrame(frame, webRequest, response);
+	}
 
-			// Use the Owner Name tag to store the timestamp in milliseconds.
-			exifDirectory.add(ExifTagConstants.EXIF_TAG_OWNER_NAME, nowFormatted);
-			try (ByteArrayOutputStream exifOutputStream = new ByteArrayOutputStream(INPUT_BUFFER_SIZE)) {
-				// Create a copy of the JPEG image with EXIF metadata added.
-				new ExifRewriter().updateExifMetadataLossy(imageBytes, exifOutputStream, outputSet);
+	/**
+	 * Get the frame from the default camera nearest to a given time.
+	 * 
+	 * @param at         The time in milliseconds since the epoch.
+	 * @param webRequest The request.
+	 * @param response   The response.
+	 * @throws IOException If the frame could not be written.
+	 */
+	@GetMapping(path = "/frame", produces = MediaType.IMAGE_JPEG_VALUE)
+	public void getFrame(@RequestParam("at") long at, WebRequest webRequest, HttpServletResponse response)
+			throws IOException {
+		getFrame(mjpegStreamService.getDefaultCamera(), at, webRequest, response);
+	}
 
-				exifOutputStream.flush();
-				byte[] image = exifOutputStream.toByteArray();
+	/**
+	 * Get the frame from a camera nearest to a given time, from the recent
+	 * frames held in memory.
+	 * 
+	 * @param camera     The camera name.
+	 * @param at         The time in milliseconds since the epoch.
+	 * @param webRequest The request.
+	 * @param response   The response.
+	 * @throws IOException If the frame could not be written.
+	 */
+	@GetMapping(path = "/frame/{camera}", produces = MediaType.IMAGE_JPEG_VALUE)
+	public void getFrame(@PathVariable("camera") String camera, @RequestParam("at") long at,
+			WebRequest webRequest, HttpServletResponse response) throws IOException {
+		if (!mjpegStreamService.hasCamera(camera)) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		Frame frame = mjpegStreamService.getFrame(camera, at);
+		if (frame == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		writeFrame(frame, webRequest, response);
+	}
 
-				// Write the MJPEG header stuff.
-				outputStream.write((HEAD + image.length + NL + NL).getBytes());
+	/**
+	 * Get the metrics for each camera and its viewers.
+	 * 
+	 * @return The metrics.
+	 */
+	@GetMapping(path = "/stream_metrics", produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public List<CameraMetrics> getMetrics() {
+		return mjpegStreamService.getMetrics();
+	}
 
-				// Write the EXIF-ed image.
-				outputStream.write(image);
+	private void writeFrame(Frame frame, WebRequest webRequest, HttpServletResponse response) throws IOException {
+		try {
+			response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+			if (webRequest.checkNotModified("\"" + frame.getTimestamp() + "\"", frame.getTimestamp())) {
+				return;
+			}
+			response.setContentType(MediaType.IMAGE_JPEG_VALUE);
+			response.setContentLength(frame.getLength());
+			frame.writeTo(response.getOutputStream());
+		} finally {
+			frame.release();
+		}
+	}
 
-				// Flush the loo.
-				outputStream.flush();
+	private static Long parseTime(String time) {
+		Matcher matcher = RELATIVE_TIME.matcher(time);
+		if (matcher.matches()) {
+			long amount = Long.parseLong(matcher.group(1));
+			String unit = matcher.group(2);
+			if ("m".equals(unit)) {
+				amount = TimeUnit.MINUTES.toMillis(amount);
+			} else if (!"ms".equals(unit)) {
+				amount = TimeUnit.SECONDS.toMillis(amount);
 			}
-		} catch (Exception ex) {
-			logger.error("Exception when adding EXIF metadata", ex);
-			throw ex;
+			return System.currentTimeMillis() - amount;
+		} else if (ABSOLUTE_TIME.matcher(time).matches()) {
+			return Long.parseLong(time);
 		}
+		return null;
 	}
 }
@@ -0,0 +1,75 @@
+package uk.me.ruthmills.alarmkeypad.controller;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+import uk.me.ruthmills.alarmkeypad.simulation.PinChange;
+import uk.me.ruthmills.alarmkeypad.simulation.ReceivedCommand;
+import uk.me.ruthmills.alarmkeypad.simulation.SimulatedBoard;
+import uk.me.ruthmills.alarmkeypad.simulation.StubAlarmEndpoint;
+
+/**
+ * Drives the simulated keypad, and stands in for the alarm endpoint, when
+ * running with the simulation profile.
+ * 
+ * @author ruth
+ */
+@RestController
+@Profile("simulation")
+public class SimulationController {
+
+	@Autowired
+	private SimulatedBoard board;
+
+	@Autowired
+	private StubAlarmEndpoint stubAlarmEndpoint;
+
+	/**
+	 * Type keys on the simulated keypad.
+	 * 
+	 * @param keys The keys to type.
+	 * @param hold How long to hold each key down, in milliseconds.
+	 * @param gap  How long to wait between keys, in milliseconds.
+	 * @throws InterruptedException If interrupted while typing.
+	 */
+	@PostMapping(value = "/simulation/keys")
+	@ResponseStatus(value = HttpStatus.OK)
+	public void type(@RequestParam(name = "keys") String keys,
+			@RequestParam(name = "hold", defaultValue = "50") long hold,
+			@RequestParam(name = "gap", defaultValue = "100") long gap) throws InterruptedException {
+		board.type(keys, hold, gap);
+	}
+
+	@GetMapping(path = "/simulation/outputs", produces = MediaType.APPLICATION_JSON_VALUE)
+	public List<PinChange> getOutputs() {
+		return board.getChanges();
+	}
+
+	@GetMapping(path = "/simulation/commands", produces = MediaType.APPLICATION_JSON_VALUE)
+	public List<ReceivedCommand> getCommands() {
+		return stubAlarmEndpoint.getCommands();
+	}
+
+	@PostMapping(value = "/simulation/alarm")
+	@ResponseStatus(value = HttpStatus.OK)
+	public void command(@RequestBody String body) {
+		stubAlarmEndpoint.receive(body);
+	}
+
+	@DeleteMapping(value = "/simulation/alarm")
+	@ResponseStatus(value = HttpStatus.OK)
+	public void clearCommand() {
+		// Only here to accept the DELETE the dispatcher sends after each command.
+	}
+}
@@ -0,0 +1,230 @@
+package uk.me.ruthmills.alarmkeypad.events;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.me.ruthmills.alarmkeypad.model.JournalEvent;
+
+/**
+ * A ring of fixed-width event records, memory-mapped from a file, so that the
+ * history of the keypad survives a restart without a write per event.
+ *
+ * Each record is 32 bytes: the event number, the time in nanoseconds since the
+ * epoch, the type, the alarm state or command as an index into a fixed table,
+ * the key, whether it was a success and a command sequence number. Digits are
+ * recorded without their value, so the journal never holds a code. Once the
+ * ring is full, each new event overwrites the oldest.
+ *
+ * Recording an event allocates nothing: the fields are written straight into
+ * the mapped buffer, which the kernel writes back to the file in its own time.
+ * The event number is written last, so a record torn by a crash is ignored.
+ *
+ * Times come from the monotonic clock, lined up again with the wall clock
+ * whenever the two are more than 10ms apart, as a Pi has no real-time
+ * clock and NTP sets the time some while after boot. When the clock is set
+ * back, times in the ring go backwards, so reads fall back from a binary
+ * search to a scan of the whole ring until those events have been overwritten.
+ *
+ * @author ruth
+ */
+public class EventJournal {
+
+	private static final int MAGIC = 0x4b50454a;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final int RECORD_SIZE = 32;
+	private static final int NUMBER = 0;
+	private static final int TIME = 8;
+	private static final int TYPE = 16;
+	private static final int STATE = 17;
+	private static final int KEY = 18;
+	private static final int SUCCESS = 20;
+	private static final int SEQUENCE = 24;
+	private static final char DIGIT = 'n';
+	private static final String[] STATES = { "unknown", "initialise", "validate", "armed_away", "armed_night",
+			"armed_home", "disarmed", "countdown", "triggered", "invalid_code" };
+	private static final EventType[] TYPES = EventType.values();
+	private static final long MAX_CLOCK_DRIFT = 10000000L;
+
+	private final MappedByteBuffer buffer;
+	private final int capacity;
+	private long clockOffset;
+	private long next;
+	private long lastTime;
+	private long outOfOrder;
+
+	private final Logger logger = LoggerFactory.getLogger(EventJournal.class);
+
+	/**
+	 * Open a journal, carrying on from the events already in it.
+	 *
+	 * @param path     The journal file.
+	 * @param capacity The number of events to keep.
+	 * @throws IOException If the journal could not be mapped.
+	 */
+	public EventJournal(Path path, int capacity) throws IOException {
+		this.capacity = capacity;
+		Path directory = path.toAbsolutePath().getParent();
+		if (directory != null) {
+			Files.createDirectories(directory);
+		}
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0L, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+		}
+		clockOffset = System.currentTimeMillis() * 1000000L - System.nanoTime();
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != RECORD_SIZE
+				|| buffer.getInt(12) != capacity) {
+			if (buffer.getInt(0) != 0) {
+				logger.warn("Event journal " + path + " is in another format, starting afresh");
+			}
+			for (int offset = 0; offset < buffer.capacity(); offset += 8) {
+				buffer.putLong(offset, 0L);
+			}
+			buffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, RECORD_SIZE).putInt(12, capacity);
+		}
+		next = findNext();
+		findOutOfOrder();
+	}
+
+	public synchronized void record(EventType type, String state, char key, long sequence, boolean success) {
+		long number = next++;
+		int offset = getOffset(number);
+		long time = getTime();
+		if (time < lastTime) {
+			outOfOrder = number;
+		}
+		lastTime = time;
+		buffer.putLong(offset + NUMBER, 0L);
+		buffer.putLong(offset + TIME, time);
+		buffer.put(offset + TYPE, (byte) type.ordinal());
+		buffer.put(offset + STATE, (byte) getStateIndex(state));
+		buffer.putChar(offset + KEY, key >= '0' && key <= '9' ? DIGIT : key);
+		buffer.put(offset + SUCCESS, (byte) (success ? 1 : 0));
+		buffer.putLong(offset + SEQUENCE, sequence);
+		buffer.putLong(offset + NUMBER, number);
+	}
+
+	/**
+	 * Read back events in a time range, oldest first.
+	 *
+	 * @param from  The earliest time, in nanoseconds since the epoch.
+	 * @param to    The latest time, in nanoseconds since the epoch.
+	 * @param after The event number to read from after, to carry on from an
+	 *              earlier read, or zero.
+	 * @param limit The most events to read.
+	 * @return The events.
+	 */
+	public synchronized List<JournalEvent> read(long from, long to, long after, int limit) {
+		List<JournalEvent> events = new ArrayList<>();
+		boolean ordered = outOfOrder <= getFirstNumber();
+		long number = Math.max(ordered ? findFirst(from) : getFirstNumber(), after + 1L);
+		for (; number < next && events.size() < limit; number++) {
+			int offset = getOffset(number);
+			if (buffer.getLong(offset + NUMBER) != number) {
+				continue;
+			}
+			long time = buffer.getLong(offset + TIME);
+			if (time > to && ordered) {
+				break;
+			}
+			JournalEvent event = time >= from && time <= to ? getEvent(offset, number, time) : null;
+			if (event != null) {
+				events.add(event);
+			}
+		}
+		return events;
+	}
+
+	private long getTime() {
+		long time = clockOffset + System.nanoTime();
+		long wallTime = System.currentTimeMillis() * 1000000L;
+		if (Math.abs(time - wallTime) > MAX_CLOCK_DRIFT) {
+			// The wall clock has been set since, so line up with it again.
+			clockOffset = wallTime - System.nanoTime();
+			time = wallTime;
+		}
+		return time;
+	}
+
+	private JournalEvent getEvent(int offset, long number, long time) {
+		int typeIndex = buffer.get(offset + TYPE);
+		int state = buffer.get(offset + STATE);
+		if (typeIndex < 0 || typeIndex >= TYPES.length || state < -1 || state >= STATES.length) {
+			logger.warn("Skipping corrupt event " + number + " in event journal");
+			return null;
+		}
+		EventType type = TYPES[typeIndex];
+		String key = null;
+		if (type == EventType.KEY) {
+			char value = buffer.getChar(offset + KEY);
+			key = value == DIGIT ? "digit" : String.valueOf(value);
+		}
+		return new JournalEvent(number, time, type.name(), state >= 0 ? STATES[state] : null, key,
+				buffer.getLong(offset + SEQUENCE), buffer.get(offset + SUCCESS) != 0);
+	}
+
+	private long findFirst(long from) {
+		// Events are recorded in time order, so search for the first one in range.
+		long low = getFirstNumber();
+		long high = next;
+		while (low < high) {
+			long middle = (low + high) >>> 1;
+			if (buffer.getLong(getOffset(middle) + TIME) < from) {
+				low = middle + 1L;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private long findNext() {
+		long last = 0L;
+		for (int slot = 0; slot < capacity; slot++) {
+			last = Math.max(last, buffer.getLong(HEADER_SIZE + slot * RECORD_SIZE + NUMBER));
+		}
+		return last + 1L;
+	}
+
+	private void findOutOfOrder() {
+		for (long number = getFirstNumber(); number < next; number++) {
+			int offset = getOffset(number);
+			if (buffer.getLong(offset + NUMBER) == number) {
+				long time = buffer.getLong(offset + TIME);
+				if (time < lastTime) {
+					outOfOrder = number;
+				}
+				lastTime = time;
+			}
+		}
+	}
+
+	private long getFirstNumber() {
+		return Math.max(1L, next - capacity);
+	}
+
+	private int getOffset(long number) {
+		return HEADER_SIZE + (int) (number % capacity) * RECORD_SIZE;
+	}
+
+	private static int getStateIndex(String state) {
+		if (state != null) {
+			for (int index = 0; index < STATES.length; index++) {
+				if (STATES[index].equals(state)) {
+					return index;
+				}
+			}
+		}
+		return -1;
+	}
+}
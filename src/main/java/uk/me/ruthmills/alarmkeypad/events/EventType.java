@@ -0,0 +1,10 @@
+package uk.me.ruthmills.alarmkeypad.events;
+
+/**
+ * The kinds of event recorded in the {@link EventJournal}.
+ *
+ * @author ruth
+ */
+public enum EventType {
+	KEY, COMMAND_SENT, COMMAND_RESULT, STATE_PUSH, GRACE_START, GRACE_EXPIRY
+}
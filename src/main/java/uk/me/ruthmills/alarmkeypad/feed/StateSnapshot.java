@@ -0,0 +1,32 @@
+package uk.me.ruthmills.alarmkeypad.feed;
+
+/**
+ * A keypad state, serialised once for every reader: as JSON for a GET, and as
+ * a server-sent event for the feed.
+ * 
+ * @author ruth
+ */
+public class StateSnapshot {
+
+	private final String eTag;
+	private final byte[] json;
+	private final byte[] event;
+
+	public StateSnapshot(String eTag, byte[] json, byte[] event) {
+		this.eTag = eTag;
+		this.json = json;
+		this.event = event;
+	}
+
+	public String getETag() {
+		return eTag;
+	}
+
+	public byte[] getJson() {
+		return json;
+	}
+
+	public byte[] getEvent() {
+		return event;
+	}
+}
@@ -0,0 +1,162 @@
+package uk.me.ruthmills.alarmkeypad.feed;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A subscriber to the state feed, written to with non-blocking servlet I/O.
+ *
+ * Each message holds the whole state, so a subscriber only ever needs the
+ * latest one. While the socket isn't ready, a new message replaces the one
+ * waiting, and a slow subscriber holds up no one else.
+ *
+ * @author ruth
+ */
+public class StateSubscriber implements WriteListener, AsyncListener {
+
+	private final AsyncContext asyncContext;
+	private final ServletOutputStream outputStream;
+	private final Executor executor;
+	private final Consumer<StateSubscriber> closeListener;
+
+	// True while a write is in progress, or waiting for the socket to be ready.
+	private final AtomicBoolean writing = new AtomicBoolean(true);
+	private final AtomicBoolean closed = new AtomicBoolean();
+	private final AtomicReference<byte[]> next = new AtomicReference<>();
+	private byte[] message;
+	private boolean flushNeeded;
+
+	private static final Logger logger = LoggerFactory.getLogger(StateSubscriber.class);
+
+	/**
+	 * Create a subscriber.
+	 * 
+	 * @param asyncContext  The async context of the subscriber's request.
+	 * @param executor      The executor to write messages with.
+	 * @param closeListener Called once the subscriber has gone.
+	 * @throws IOException If the response could not be written to.
+	 */
+	public StateSubscriber(AsyncContext asyncContext, Executor executor, Consumer<StateSubscriber> closeListener)
+			throws IOException {
+		this.asyncContext = asyncContext;
+		this.outputStream = asyncContext.getResponse().getOutputStream();
+		this.executor = executor;
+		this.closeListener = closeListener;
+	}
+
+	/**
+	 * Start writing to the subscriber. The container calls
+	 * {@link #onWritePossible()} as soon as the listener is set.
+	 */
+	public void start() {
+		asyncContext.addListener(this);
+		outputStream.setWriteListener(this);
+	}
+
+	/**
+	 * Send a message, in place of any not yet written.
+	 * 
+	 * @param message The message.
+	 */
+	public void send(byte[] message) {
+		next.set(message);
+		wake();
+	}
+
+	/**
+	 * Send a message only if there is nothing waiting to be written.
+	 * 
+	 * @param message The message.
+	 */
+	public void sendIfIdle(byte[] message) {
+		if (next.compareAndSet(null, message)) {
+			wake();
+		}
+	}
+
+	@Override
+	public void onWritePossible() {
+		try {
+			drain();
+		} catch (IOException ex) {
+			onError(ex);
+		}
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		logger.debug("State subscriber disconnected", throwable);
+		close();
+	}
+
+	@Override
+	public void onComplete(AsyncEvent event) {
+		close();
+	}
+
+	@Override
+	public void onTimeout(AsyncEvent event) {
+		close();
+	}
+
+	@Override
+	public void onError(AsyncEvent event) {
+		onError(event.getThrowable());
+	}
+
+	@Override
+	public void onStartAsync(AsyncEvent event) {
+	}
+
+	private void wake() {
+		if (writing.compareAndSet(false, true)) {
+			executor.execute(this::onWritePossible);
+		}
+	}
+
+	private synchronized void drain() throws IOException {
+		while (!closed.get() && outputStream.isReady()) {
+			if (message != null) {
+				outputStream.write(message);
+				message = null;
+				flushNeeded = true;
+			} else if (flushNeeded) {
+				flushNeeded = false;
+				outputStream.flush();
+			} else if ((message = next.getAndSet(null)) == null) {
+				writing.set(false);
+				// A message may have arrived after the poll but before writing was cleared.
+				if (next.get() == null || !writing.compareAndSet(false, true)) {
+					return;
+				}
+			}
+		}
+	}
+
+	public boolean isClosed() {
+		return closed.get();
+	}
+
+	private void close() {
+		if (closed.compareAndSet(false, true)) {
+			closeListener.accept(this);
+			try {
+				asyncContext.complete();
+			} catch (IllegalStateException ex) {
+				// Already completed.
+			}
+		}
+	}
+}
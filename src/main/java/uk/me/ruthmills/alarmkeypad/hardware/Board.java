@@ -0,0 +1,82 @@
+package uk.me.ruthmills.alarmkeypad.hardware;
+
+import com.pi4j.io.gpio.Pin;
+
+/**
+ * The GPIO pins of the board the keypad is wired to, so that the services
+ * don't depend on running on a Raspberry Pi.
+ *
+ * @author ruth
+ */
+public interface Board {
+
+	/**
+	 * Set up a pin as an output.
+	 *
+	 * @param pin          The pin.
+	 * @param name         The name of the pin.
+	 * @param high         Whether the pin starts high.
+	 * @param shutdownHigh Whether to leave the pin high on shutdown.
+	 * @return The output pin.
+	 */
+	public OutputPin provisionOutputPin(Pin pin, String name, boolean high, boolean shutdownHigh);
+
+	/**
+	 * Set up a pin as an input, pulled up.
+	 *
+	 * @param pin  The pin.
+	 * @param name The name of the pin.
+	 * @return The input pin.
+	 */
+	public InputPin provisionInputPin(Pin pin, String name);
+
+	/**
+	 * Set up pins as outputs that are set together.
+	 *
+	 * @param pins         The pins.
+	 * @param names        The names of the pins.
+	 * @param high         Whether the pins start high.
+	 * @param shutdownHigh Whether to leave the pins high on shutdown.
+	 * @return The output bank, with bit n for the nth pin.
+	 */
+	public default OutputBank provisionOutputBank(Pin[] pins, String[] names, boolean high, boolean shutdownHigh) {
+		OutputPin[] outputs = new OutputPin[pins.length];
+		for (int pin = 0; pin < pins.length; pin++) {
+			outputs[pin] = provisionOutputPin(pins[pin], names[pin], high, shutdownHigh);
+		}
+		return new PinOutputBank(outputs);
+	}
+
+	/**
+	 * Set up a pin to drive a buzzer.
+	 *
+	 * An active buzzer makes its own tone, so it is just switched on for any
+	 * frequency. A passive buzzer has to be driven at the frequency.
+	 *
+	 * @param pin     The pin.
+	 * @param name    The name of the pin.
+	 * @param passive Whether the buzzer is passive.
+	 * @return The tone output, silent to start with.
+	 */
+	public default ToneOutput provisionToneOutput(Pin pin, String name, boolean passive) {
+		OutputPin output = provisionOutputPin(pin, name, false, false);
+		return new ToneOutput() {
+
+			@Override
+			public String getName() {
+				return output.getName();
+			}
+
+			@Override
+			public void setFrequency(int frequency) {
+				output.setState(frequency > 0);
+			}
+		};
+	}
+
+	public default void setState(boolean high, OutputPin... pins) {
+		for (OutputPin pin : pins) {
+			pin.setState(high);
+		}
+	}
+}
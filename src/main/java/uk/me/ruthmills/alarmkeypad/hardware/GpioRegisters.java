@@ -0,0 +1,119 @@
+package uk.me.ruthmills.alarmkeypad.hardware;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.sun.jna.LastErrorException;
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+
+/**
+ * The BCM2835 GPIO registers, mapped into memory from /dev/gpiomem.
+ *
+ * Writing a mask to the set register sets every pin in it high at once, and
+ * writing to the clear register sets them low, leaving the other pins alone.
+ *
+ * The JVM can't map a character device, as it takes the device's size of zero
+ * as a file to be grown, so /dev/gpiomem is mapped with mmap from the C
+ * library. An ordinary file can stand in for it, mapped by the JVM, so that
+ * what would be written to the registers can be checked off a Raspberry Pi.
+ *
+ * @author ruth
+ */
+public class GpioRegisters {
+
+	private static final int BLOCK_SIZE = 4096;
+	private static final int GPSET0 = 0x1c;
+	private static final int GPCLR0 = 0x28;
+	private static final int GPLEV0 = 0x34;
+
+	private final ByteBuffer registers;
+
+	/**
+	 * Map the registers.
+	 *
+	 * @param path The path of /dev/gpiomem, or an existing file standing in for
+	 *             it.
+	 * @throws IOException If the registers could not be mapped.
+	 */
+	public GpioRegisters(Path path) throws IOException {
+		if (!Files.exists(path)) {
+			throw new NoSuchFileException(path.toString());
+		}
+		if (Files.isRegularFile(path)) {
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				// The mapping stays valid once the channel is closed.
+				registers = channel.map(FileChannel.MapMode.READ_WRITE, 0L, BLOCK_SIZE);
+			}
+		} else {
+			registers = mapDevice(path);
+		}
+		registers.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Set and clear pins.
+	 *
+	 * @param set   The BCM pins to set high, as a bit mask.
+	 * @param clear The BCM pins to set low, as a bit mask.
+	 */
+	public void write(int set, int clear) {
+		if (set != 0) {
+			registers.putInt(GPSET0, set);
+		}
+		if (clear != 0) {
+			registers.putInt(GPCLR0, clear);
+		}
+	}
+
+	/**
+	 * Read the levels of the pins.
+	 *
+	 * @return The levels of BCM pins 0 to 31, as a bit mask.
+	 */
+	public int read() {
+		return registers.getInt(GPLEV0);
+	}
+
+	private static ByteBuffer mapDevice(Path path) throws IOException {
+		try {
+			int fd = CLibrary.INSTANCE.open(path.toString(), CLibrary.O_RDWR | CLibrary.O_SYNC);
+			try {
+				// The mapping stays valid once the device is closed.
+				Pointer memory = CLibrary.INSTANCE.mmap(null, new NativeLong(BLOCK_SIZE),
+						CLibrary.PROT_READ | CLibrary.PROT_WRITE, CLibrary.MAP_SHARED, fd, new NativeLong(0L));
+				return memory.getByteBuffer(0L, BLOCK_SIZE);
+			} finally {
+				CLibrary.INSTANCE.close(fd);
+			}
+		} catch (LastErrorException ex) {
+			throw new IOException("Failed to map " + path + ": errno " + ex.getErrorCode(), ex);
+		}
+	}
+
+	private interface CLibrary extends Library {
+
+		CLibrary INSTANCE = Native.load("c", CLibrary.class);
+
+		int O_RDWR = 0x2;
+		int O_SYNC = 0x101000;
+		int PROT_READ = 0x1;
+		int PROT_WRITE = 0x2;
+		int MAP_SHARED = 0x1;
+
+		int open(String path, int flags) throws LastErrorException;
+
+		Pointer mmap(Pointer address, NativeLong length, int protection, int flags, int fd, NativeLong offset)
+				throws LastErrorException;
+
+		int close(int fd) throws LastErrorException;
+	}
+}
@@ -0,0 +1,16 @@
+package uk.me.ruthmills.alarmkeypad.hardware;
+
+public interface InputPin {
+
+	public String getName();
+
+	public boolean isLow();
+
+	/**
+	 * Add a listener for changes to the pin. It may be called on another
+	 * thread, and should return quickly.
+	 *
+	 * @param listener The listener.
+	 */
+	public void addListener(PinListener listener);
+}
@@ -0,0 +1,47 @@
+package uk.me.ruthmills.alarmkeypad.hardware;
+
+import static com.pi4j.io.gpio.RaspiPin.GPIO_22;
+import static com.pi4j.io.gpio.RaspiPin.GPIO_23;
+import static com.pi4j.io.gpio.RaspiPin.GPIO_24;
+import static com.pi4j.io.gpio.RaspiPin.GPIO_25;
+import static com.pi4j.io.gpio.RaspiPin.GPIO_26;
+import static com.pi4j.io.gpio.RaspiPin.GPIO_27;
+import static com.pi4j.io.gpio.RaspiPin.GPIO_28;
+import static com.pi4j.io.gpio.RaspiPin.GPIO_29;
+
+import com.pi4j.io.gpio.Pin;
+
+/**
+ * How the keypad matrix is wired: each key joins a column pin to a row pin.
+ *
+ * @author ruth
+ */
+public final class KeypadLayout {
+
+	public static final Pin COLUMN_PINS[] = { GPIO_22, GPIO_23, GPIO_24, GPIO_25 };
+	public static final Pin ROW_PINS[] = { GPIO_26, GPIO_27, GPIO_28, GPIO_29 };
+	public static final char MATRIX[][] = { { '1', '2', '3', 'A' }, { '4', '5', '6', 'B' }, { '7', '8', '9', 'C' },
+			{ '*', '0', '#', 'D' } };
+
+	private KeypadLayout() {
+	}
+
+	public static Pin getColumnPin(char key) {
+		return COLUMN_PINS[find(key) % 4];
+	}
+
+	public static Pin getRowPin(char key) {
+		return ROW_PINS[find(key) / 4];
+	}
+
+	private static int find(char key) {
+		for (int row = 0; row < MATRIX.length; row++) {
+			for (int col = 0; col < MATRIX[row].length; col++) {
+				if (MATRIX[row][col] == key) {
+					return row * 4 + col;
+				}
+			}
+		}
+		throw new IllegalArgumentException("No such key: " + key);
+	}
+}
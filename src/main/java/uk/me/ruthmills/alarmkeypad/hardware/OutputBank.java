@@ -0,0 +1,19 @@
+package uk.me.ruthmills.alarmkeypad.hardware;
+
+/**
+ * A group of output pins that are set together.
+ *
+ * @author ruth
+ */
+public interface OutputBank {
+
+	/**
+	 * Set the levels of the pins. Pins that are already at the level asked for
+	 * are left alone.
+	 *
+	 * @param levels The levels, bit n being high for the nth pin to be high.
+	 */
+	public void setLevels(int levels);
+
+	public int getLevels();
+}
@@ -0,0 +1,18 @@
+package uk.me.ruthmills.alarmkeypad.hardware;
+
+public interface OutputPin {
+
+	public String getName();
+
+	public boolean isHigh();
+
+	public void setState(boolean high);
+
+	public default void high() {
+		setState(true);
+	}
+
+	public default void low() {
+		setState(false);
+	}
+}
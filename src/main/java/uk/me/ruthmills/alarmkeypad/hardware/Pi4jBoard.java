@@ -0,0 +1,227 @@
+package uk.me.ruthmills.alarmkeypad.hardware;
+
+import static com.pi4j.io.gpio.PinPullResistance.PULL_UP;
+import static com.pi4j.io.gpio.PinState.HIGH;
+import static com.pi4j.io.gpio.PinState.LOW;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioFactory;
+import com.pi4j.io.gpio.GpioPinDigitalInput;
+import com.pi4j.io.gpio.GpioPinDigitalOutput;
+import com.pi4j.io.gpio.GpioPinPwmOutput;
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinMode;
+import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.event.GpioPinListenerDigital;
+import com.pi4j.wiringpi.Gpio;
+import com.pi4j.wiringpi.SoftTone;
+
+/**
+ * The Raspberry Pi's GPIO pins, through pi4j.
+ *
+ * Output banks are written straight to the GPIO registers, mapped from
+ * /dev/gpiomem, so that all their pins change together. If the registers can't
+ * be mapped, their pins are written one at a time through pi4j instead.
+ *
+ * A passive buzzer is driven by the hardware PWM if its pin has it, and
+ * otherwise by wiringPi's soft tone thread.
+ *
+ * @author ruth
+ */
+@Component
+@Profile("!simulation")
+public class Pi4jBoard implements Board {
+
+	// The BCM number of each wiringPi pin number.
+	private static final int[] BCM_PINS = { 17, 18, 27, 22, 23, 24, 25, 4, 2, 3, 8, 7, 10, 9, 11, 14, 15, 28, 29, 30,
+			31, 5, 6, 13, 19, 26, 12, 16, 20, 21, 0, 1 };
+
+	// The PWM clock runs at 19.2MHz, divided down to 600kHz.
+	private static final int PWM_CLOCK = 19200000;
+	private static final int PWM_DIVISOR = 32;
+
+	@Value("${gpio.memory:/dev/gpiomem}")
+	private String gpioMemory;
+
+	private volatile GpioController gpio;
+	private volatile GpioRegisters registers;
+	private final List<Integer> softTones = new CopyOnWriteArrayList<>();
+
+	private final Logger logger = LoggerFactory.getLogger(Pi4jBoard.class);
+
+	@PostConstruct
+	public void initialise() {
+		gpio = GpioFactory.getInstance();
+		if (!gpioMemory.isEmpty()) {
+			try {
+				registers = new GpioRegisters(Paths.get(gpioMemory));
+			} catch (IOException | RuntimeException | LinkageError ex) {
+				logger.warn("Failed to map GPIO registers from " + gpioMemory + ", writing outputs through pi4j: " + ex);
+			}
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		for (int address : softTones) {
+			SoftTone.softToneStop(address);
+		}
+		gpio.shutdown();
+	}
+
+	@Override
+	public OutputPin provisionOutputPin(Pin pin, String name, boolean high, boolean shutdownHigh) {
+		GpioPinDigitalOutput output = gpio.provisionDigitalOutputPin(pin, name, PinState.getState(high));
+		output.setShutdownOptions(true, PinState.getState(shutdownHigh));
+		return new Pi4jOutputPin(output);
+	}
+
+	@Override
+	public OutputBank provisionOutputBank(Pin[] pins, String[] names, boolean high, boolean shutdownHigh) {
+		// Provision the pins through pi4j too, so they are made outputs and reset on shutdown.
+		OutputBank bank = Board.super.provisionOutputBank(pins, names, high, shutdownHigh);
+		if (registers == null) {
+			return bank;
+		}
+		int[] bcmPins = new int[pins.length];
+		for (int pin = 0; pin < pins.length; pin++) {
+			bcmPins[pin] = BCM_PINS[pins[pin].getAddress()];
+		}
+		return new RegisterOutputBank(registers, bcmPins, bank.getLevels());
+	}
+
+	@Override
+	public ToneOutput provisionToneOutput(Pin pin, String name, boolean passive) {
+		if (!passive) {
+			return Board.super.provisionToneOutput(pin, name, passive);
+		}
+		if (pin.getSupportedPinModes().contains(PinMode.PWM_OUTPUT)) {
+			GpioPinPwmOutput output = gpio.provisionPwmOutputPin(pin, name, 0);
+			output.setShutdownOptions(true, LOW);
+			Gpio.pwmSetMode(Gpio.PWM_MODE_MS);
+			Gpio.pwmSetClock(PWM_DIVISOR);
+			return new PwmToneOutput(output);
+		}
+		if (SoftTone.softToneCreate(pin.getAddress()) != 0) {
+			throw new IllegalStateException("Failed to create soft tone on " + name);
+		}
+		softTones.add(pin.getAddress());
+		return new SoftToneOutput(pin.getAddress(), name);
+	}
+
+	@Override
+	public InputPin provisionInputPin(Pin pin, String name) {
+		GpioPinDigitalInput input = gpio.provisionDigitalInputPin(pin, name, PULL_UP);
+		input.setShutdownOptions(true, HIGH);
+		return new Pi4jInputPin(input);
+	}
+
+	private static class Pi4jOutputPin implements OutputPin {
+
+		private final GpioPinDigitalOutput output;
+
+		private Pi4jOutputPin(GpioPinDigitalOutput output) {
+			this.output = output;
+		}
+
+		@Override
+		public String getName() {
+			return output.getName();
+		}
+
+		@Override
+		public boolean isHigh() {
+			return output.isHigh();
+		}
+
+		@Override
+		public void setState(boolean high) {
+			output.setState(high ? HIGH : LOW);
+		}
+	}
+
+	private static class PwmToneOutput implements ToneOutput {
+
+		private final GpioPinPwmOutput output;
+
+		private PwmToneOutput(GpioPinPwmOutput output) {
+			this.output = output;
+		}
+
+		@Override
+		public String getName() {
+			return output.getName();
+		}
+
+		@Override
+		public void setFrequency(int frequency) {
+			if (frequency > 0) {
+				// A square wave: the range sets the period, and half of it is high.
+				int range = PWM_CLOCK / PWM_DIVISOR / frequency;
+				output.setPwmRange(range);
+				output.setPwm(range / 2);
+			} else {
+				output.setPwm(0);
+			}
+		}
+	}
+
+	private static class SoftToneOutput implements ToneOutput {
+
+		private final int address;
+		private final String name;
+
+		private SoftToneOutput(int address, String name) {
+			this.address = address;
+			this.name = name;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public void setFrequency(int frequency) {
+			SoftTone.softToneWrite(address, frequency);
+		}
+	}
+
+	private static class Pi4jInputPin implements InputPin {
+
+		private final GpioPinDigitalInput input;
+
+		private Pi4jInputPin(GpioPinDigitalInput input) {
+			this.input = input;
+		}
+
+		@Override
+		public String getName() {
+			return input.getName();
+		}
+
+		@Override
+		public boolean isLow() {
+			return input.isLow();
+		}
+
+		@Override
+		public void addListener(PinListener listener) {
+			input.addListener((GpioPinListenerDigital) event -> listener.pinChanged(event.getState().isHigh()));
+		}
+	}
+}
@@ -0,0 +1,7 @@
+package uk.me.ruthmills.alarmkeypad.hardware;
+
+@FunctionalInterface
+public interface PinListener {
+
+	public void pinChanged(boolean high);
+}
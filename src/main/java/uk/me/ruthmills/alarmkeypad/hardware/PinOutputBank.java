@@ -0,0 +1,35 @@
+package uk.me.ruthmills.alarmkeypad.hardware;
+
+/**
+ * An output bank that writes its pins one at a time.
+ *
+ * @author ruth
+ */
+public class PinOutputBank extends ShadowOutputBank {
+
+	private final OutputPin[] pins;
+
+	public PinOutputBank(OutputPin[] pins) {
+		super(getLevels(pins));
+		this.pins = pins;
+	}
+
+	@Override
+	protected void write(int levels, int changed) {
+		for (int pin = 0; pin < pins.length; pin++) {
+			if ((changed & (1 << pin)) != 0) {
+				pins[pin].setState((levels & (1 << pin)) != 0);
+			}
+		}
+	}
+
+	private static int getLevels(OutputPin[] pins) {
+		int levels = 0;
+		for (int pin = 0; pin < pins.length; pin++) {
+			if (pins[pin].isHigh()) {
+				levels |= 1 << pin;
+			}
+		}
+		return levels;
+	}
+}
@@ -0,0 +1,45 @@
+package uk.me.ruthmills.alarmkeypad.hardware;
+
+/**
+ * An output bank that sets its pins through the GPIO registers, so that all
+ * the pins going high change in one write and all those going low in another.
+ *
+ * @author ruth
+ */
+public class RegisterOutputBank extends ShadowOutputBank {
+
+	private final GpioRegisters registers;
+	private final int[] masks;
+
+	/**
+	 * Create an output bank.
+	 *
+	 * @param registers The GPIO registers.
+	 * @param bcmPins   The BCM numbers of the pins.
+	 * @param levels    The levels the pins start at.
+	 */
+	public RegisterOutputBank(GpioRegisters registers, int[] bcmPins, int levels) {
+		super(levels);
+		this.registers = registers;
+		this.masks = new int[bcmPins.length];
+		for (int pin = 0; pin < bcmPins.length; pin++) {
+			masks[pin] = 1 << bcmPins[pin];
+		}
+	}
+
+	@Override
+	protected void write(int levels, int changed) {
+		int set = 0;
+		int clear = 0;
+		for (int pin = 0; pin < masks.length; pin++) {
+			if ((changed & (1 << pin)) != 0) {
+				if ((levels & (1 << pin)) != 0) {
+					set |= masks[pin];
+				} else {
+					clear |= masks[pin];
+				}
+			}
+		}
+		registers.write(set, clear);
+	}
+}
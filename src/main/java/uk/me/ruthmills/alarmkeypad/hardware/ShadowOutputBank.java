@@ -0,0 +1,43 @@
+package uk.me.ruthmills.alarmkeypad.hardware;
+
+/**
+ * An output bank that keeps a shadow of the levels it has set, so that only
+ * the pins that change are written.
+ *
+ * @author ruth
+ */
+public abstract class ShadowOutputBank implements OutputBank {
+
+	private int shadow;
+
+	/**
+	 * Create an output bank.
+	 *
+	 * @param levels The levels the pins start at.
+	 */
+	protected ShadowOutputBank(int levels) {
+		this.shadow = levels;
+	}
+
+	@Override
+	public synchronized void setLevels(int levels) {
+		int changed = levels ^ shadow;
+		if (changed != 0) {
+			write(levels, changed);
+			shadow = levels;
+		}
+	}
+
+	@Override
+	public synchronized int getLevels() {
+		return shadow;
+	}
+
+	/**
+	 * Write the pins that have changed.
+	 *
+	 * @param levels  The levels of all the pins.
+	 * @param changed The pins that have changed, as a bit mask.
+	 */
+	protected abstract void write(int levels, int changed);
+}
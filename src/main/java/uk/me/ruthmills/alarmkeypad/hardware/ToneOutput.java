@@ -0,0 +1,13 @@
+package uk.me.ruthmills.alarmkeypad.hardware;
+
+public interface ToneOutput {
+
+	public String getName();
+
+	/**
+	 * Play a tone until told otherwise.
+	 *
+	 * @param frequency The frequency in hertz, or zero for silence.
+	 */
+	public void setFrequency(int frequency);
+}
@@ -0,0 +1,19 @@
+package uk.me.ruthmills.alarmkeypad.loop;
+
+/**
+ * A source of monotonic time, so that timers can be driven by a virtual clock
+ * in tests.
+ *
+ * @author ruth
+ */
+public interface Clock {
+
+	public static final Clock SYSTEM = System::nanoTime;
+
+	/**
+	 * Get the current time.
+	 *
+	 * @return The time in nanoseconds, from an arbitrary origin.
+	 */
+	public long nanoTime();
+}
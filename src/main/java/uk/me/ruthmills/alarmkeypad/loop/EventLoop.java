@@ -0,0 +1,127 @@
+package uk.me.ruthmills.alarmkeypad.loop;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs tasks one at a time on a single thread, so that the state they touch
+ * needs no locks.
+ *
+ * Any thread can post a task, onto a lock-free queue. Timers are kept on a
+ * {@link TimerWheel} and only touched by the loop thread. The loop parks when
+ * there is nothing to do, until a task is posted or the next tick is due.
+ *
+ * The loop can also be run by hand, with {@link #runPending()}, against a
+ * virtual clock.
+ *
+ * @author ruth
+ */
+public class EventLoop implements Executor {
+
+	private static final long TICK_DURATION = TimeUnit.MILLISECONDS.toNanos(50L);
+	private static final int SLOT_COUNT = 256;
+
+	private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+	private final Clock clock;
+	private final TimerWheel timers;
+	private volatile Thread thread;
+	private volatile boolean running;
+
+	private final Logger logger = LoggerFactory.getLogger(EventLoop.class);
+
+	/**
+	 * Create an event loop.
+	 *
+	 * @param clock The clock to time timers with.
+	 */
+	public EventLoop(Clock clock) {
+		this.clock = clock;
+		this.timers = new TimerWheel(clock.nanoTime(), TICK_DURATION, SLOT_COUNT);
+	}
+
+	/**
+	 * Start the loop on a thread of its own.
+	 *
+	 * @param name The name of the thread.
+	 */
+	public void start(String name) {
+		running = true;
+		thread = new Thread(this::run, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() throws InterruptedException {
+		running = false;
+		Thread thread = this.thread;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+			thread.join(1000L);
+		}
+	}
+
+	/**
+	 * Post a task to run on the loop thread.
+	 *
+	 * @param task The task.
+	 */
+	@Override
+	public void execute(Runnable task) {
+		queue.offer(task);
+		Thread thread = this.thread;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Schedule a task to run on the loop thread after a delay. Only to be called
+	 * on the loop thread.
+	 *
+	 * @param delay The delay, in nanoseconds.
+	 * @param task  The task.
+	 * @return The timeout, to cancel the task with.
+	 */
+	public Timeout schedule(long delay, Runnable task) {
+		return timers.schedule(clock.nanoTime() + delay, task);
+	}
+
+	public Clock getClock() {
+		return clock;
+	}
+
+	/**
+	 * Run the tasks that have been posted, then any timers that are due.
+	 */
+	public void runPending() {
+		Runnable task;
+		while ((task = queue.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException ex) {
+				logger.error("Exception in event loop task", ex);
+			}
+		}
+		timers.expire(clock.nanoTime());
+	}
+
+	private void run() {
+		while (running) {
+			runPending();
+			if (queue.isEmpty()) {
+				long nextTickTime = timers.getNextTickTime();
+				if (nextTickTime == Long.MAX_VALUE) {
+					LockSupport.park(this);
+				} else {
+					LockSupport.parkNanos(this, nextTickTime - clock.nanoTime());
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package uk.me.ruthmills.alarmkeypad.loop;
+
+/**
+ * A task scheduled on a {@link TimerWheel}.
+ *
+ * @author ruth
+ */
+public class Timeout {
+
+	final TimerWheel wheel;
+	final long deadline;
+	final Runnable task;
+	Timeout previous;
+	Timeout next;
+	int slot = -1;
+	boolean done;
+
+	Timeout(TimerWheel wheel, long deadline, Runnable task) {
+		this.wheel = wheel;
+		this.deadline = deadline;
+		this.task = task;
+	}
+
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Check whether the task has run or been cancelled.
+	 *
+	 * @return True if the task has run or been cancelled.
+	 */
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * Cancel the task, if it hasn't run yet.
+	 */
+	public void cancel() {
+		if (!done) {
+			done = true;
+			wheel.remove(this);
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package uk.me.ruthmills.alarmkeypad.loop;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hashed wheel of timers, for the single thread of an {@link EventLoop}.
+ *
+ * Time is cut into ticks, and each timer is put in the slot for the tick its
+ * deadline falls in, so scheduling and cancelling are constant time. Each tick
+ * only the timers in one slot are looked at. A timer fires on the first tick
+ * at or after its deadline, and timers due on the same tick fire in deadline
+ * order. Timers due more than a turn of the wheel ahead stay in their slot
+ * until a later turn.
+ *
+ * Not thread safe.
+ *
+ * @author ruth
+ */
+public class TimerWheel {
+
+	private final long startTime;
+	private final long tickDuration;
+	private final Timeout[] slots;
+	private final int mask;
+	private long tick;
+	private int size;
+
+	private final Logger logger = LoggerFactory.getLogger(TimerWheel.class);
+
+	/**
+	 * Create a timer wheel.
+	 *
+	 * @param startTime    The time of tick zero, in nanoseconds.
+	 * @param tickDuration The length of a tick, in nanoseconds.
+	 * @param slotCount    The number of slots, which must be a power of two.
+	 */
+	public TimerWheel(long startTime, long tickDuration, int slotCount) {
+		if (Integer.bitCount(slotCount) != 1) {
+			throw new IllegalArgumentException("Slot count must be a power of two: " + slotCount);
+		}
+		this.startTime = startTime;
+		this.tickDuration = tickDuration;
+		this.slots = new Timeout[slotCount];
+		this.mask = slotCount - 1;
+	}
+
+	/**
+	 * Schedule a task.
+	 *
+	 * @param deadline The time to run the task at, in nanoseconds.
+	 * @param task     The task.
+	 * @return The timeout, to cancel the task with.
+	 */
+	public Timeout schedule(long deadline, Runnable task) {
+		Timeout timeout = new Timeout(this, deadline, task);
+		long deadlineTick = Math.max((deadline - startTime + tickDuration - 1) / tickDuration, tick + 1);
+		int slot = (int) (deadlineTick & mask);
+		timeout.slot = slot;
+		timeout.next = slots[slot];
+		if (timeout.next != null) {
+			timeout.next.previous = timeout;
+		}
+		slots[slot] = timeout;
+		size++;
+		return timeout;
+	}
+
+	/**
+	 * Run the tasks that are due.
+	 *
+	 * @param now The current time, in nanoseconds.
+	 * @return The number of tasks run.
+	 */
+	public int expire(long now) {
+		long nowTick = (now - startTime) / tickDuration;
+		if (nowTick <= tick) {
+			return 0;
+		}
+		Timeout expired = null;
+		if (nowTick - tick >= slots.length) {
+			// Been away for a whole turn or more, so look at every slot.
+			for (int slot = 0; slot < slots.length; slot++) {
+				expired = collect(slot, now, expired);
+			}
+		} else {
+			for (long next = tick + 1; next <= nowTick; next++) {
+				expired = collect((int) (next & mask), now, expired);
+			}
+		}
+		tick = nowTick;
+
+		// Run them once the wheel is settled, as they may schedule more.
+		int count = 0;
+		while (expired != null) {
+			Timeout timeout = expired;
+			expired = timeout.next;
+			timeout.next = null;
+			if (!timeout.done) {
+				timeout.done = true;
+				try {
+					timeout.task.run();
+				} catch (RuntimeException ex) {
+					logger.error("Exception in timer task", ex);
+				}
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Get the time the next tick is due, to wait until.
+	 *
+	 * @return The time in nanoseconds, or Long.MAX_VALUE if no timers are set.
+	 */
+	public long getNextTickTime() {
+		return size > 0 ? startTime + (tick + 1) * tickDuration : Long.MAX_VALUE;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	void remove(Timeout timeout) {
+		if (timeout.slot < 0) {
+			return;
+		}
+		if (timeout.previous != null) {
+			timeout.previous.next = timeout.next;
+		} else {
+			slots[timeout.slot] = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.previous = timeout.previous;
+		}
+		timeout.previous = null;
+		timeout.next = null;
+		timeout.slot = -1;
+		size--;
+	}
+
+	private Timeout collect(int slot, long now, Timeout expired) {
+		Timeout timeout = slots[slot];
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			if (timeout.deadline - now <= 0L) {
+				remove(timeout);
+				expired = insert(expired, timeout);
+			}
+			timeout = next;
+		}
+		return expired;
+	}
+
+	private static Timeout insert(Timeout expired, Timeout timeout) {
+		// Keep the expired timers in deadline order, for when several ticks pass at once.
+		if (expired == null || timeout.deadline - expired.deadline < 0L) {
+			timeout.next = expired;
+			return timeout;
+		}
+		Timeout previous = expired;
+		while (previous.next != null && previous.next.deadline - timeout.deadline <= 0L) {
+			previous = previous.next;
+		}
+		timeout.next = previous.next;
+		previous.next = timeout;
+		return expired;
+	}
+}
@@ -0,0 +1,19 @@
+package uk.me.ruthmills.alarmkeypad.model;
+
+/**
+ * Published whenever the alarm state is pushed to the keypad.
+ * 
+ * @author ruth
+ */
+public class AlarmStateChangedEvent {
+
+	private final AlarmState alarmState;
+
+	public AlarmStateChangedEvent(AlarmState alarmState) {
+		this.alarmState = alarmState;
+	}
+
+	public AlarmState getAlarmState() {
+		return alarmState;
+	}
+}
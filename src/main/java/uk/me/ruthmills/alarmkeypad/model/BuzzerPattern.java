@@ -0,0 +1,87 @@
+package uk.me.ruthmills.alarmkeypad.model;
+
+/**
+ * A sequence of tones for the buzzer, played a number of times or forever.
+ * 
+ * A pattern only takes over from the one playing if its priority is at least
+ * as high, so a key click can't cut short the triggered alarm.
+ * 
+ * @author ruth
+ */
+public class BuzzerPattern {
+
+	public static final int FOREVER = 0;
+
+	private final String name;
+	private final int priority;
+	private final int repeats;
+	private final Tone[] tones;
+
+	/**
+	 * Create a pattern.
+	 * 
+	 * @param name     The name of the pattern, for logging.
+	 * @param priority The priority, higher beating lower.
+	 * @param repeats  How many times to play the tones, or {@link #FOREVER}.
+	 * @param tones    The tones.
+	 */
+	public BuzzerPattern(String name, int priority, int repeats, Tone... tones) {
+		if (tones.length == 0 || repeats < 0) {
+			throw new IllegalArgumentException("Invalid buzzer pattern: " + name);
+		}
+		this.name = name;
+		this.priority = priority;
+		this.repeats = repeats;
+		this.tones = tones;
+	}
+
+	public static BuzzerPattern once(String name, int priority, Tone... tones) {
+		return new BuzzerPattern(name, priority, 1, tones);
+	}
+
+	public static BuzzerPattern loop(String name, int priority, Tone... tones) {
+		return new BuzzerPattern(name, priority, FOREVER, tones);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	public int getRepeats() {
+		return repeats;
+	}
+
+	public boolean isLoop() {
+		return repeats == FOREVER;
+	}
+
+	public int getToneCount() {
+		return tones.length;
+	}
+
+	public Tone getTone(int index) {
+		return tones[index];
+	}
+
+	/**
+	 * How long one pass through the tones takes.
+	 * 
+	 * @return The duration in milliseconds.
+	 */
+	public long getDuration() {
+		long duration = 0L;
+		for (Tone tone : tones) {
+			duration += tone.getDuration();
+		}
+		return duration;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
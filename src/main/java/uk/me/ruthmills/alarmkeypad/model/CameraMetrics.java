@@ -0,0 +1,70 @@
+package uk.me.ruthmills.alarmkeypad.model;
+
+import java.util.List;
+
+/**
+ * Metrics for one camera: its upstream connection and its viewers.
+ * 
+ * @author ruth
+ */
+public class CameraMetrics {
+
+	private final String name;
+	private final boolean connected;
+	private final long frames;
+	private final long bytes;
+	private final double framesPerSecond;
+	private final double bytesPerSecond;
+	private final long reconnects;
+	private final long stalls;
+	private final List<ViewerMetrics> viewers;
+
+	public CameraMetrics(String name, boolean connected, long frames, long bytes, double framesPerSecond,
+			double bytesPerSecond, long reconnects, long stalls, List<ViewerMetrics> viewers) {
+		this.name = name;
+		this.connected = connected;
+		this.frames = frames;
+		this.bytes = bytes;
+		this.framesPerSecond = framesPerSecond;
+		this.bytesPerSecond = bytesPerSecond;
+		this.reconnects = reconnects;
+		this.stalls = stalls;
+		this.viewers = viewers;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isConnected() {
+		return connected;
+	}
+
+	public long getFrames() {
+		return frames;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public double getFramesPerSecond() {
+		return framesPerSecond;
+	}
+
+	public double getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	public long getReconnects() {
+		return reconnects;
+	}
+
+	public long getStalls() {
+		return stalls;
+	}
+
+	public List<ViewerMetrics> getViewers() {
+		return viewers;
+	}
+}
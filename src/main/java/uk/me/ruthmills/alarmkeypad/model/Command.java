@@ -0,0 +1,47 @@
+package uk.me.ruthmills.alarmkeypad.model;
+
+/**
+ * A command to send to the alarm endpoint.
+ * 
+ * @author ruth
+ */
+public class Command {
+
+	private final long sequence;
+	private final String state;
+	private final String code;
+	private final long createdTime;
+
+	public Command(long sequence, String state, String code, long createdTime) {
+		this.sequence = sequence;
+		this.state = state;
+		this.code = code;
+		this.createdTime = createdTime;
+	}
+
+	/**
+	 * The order the command was dispatched in.
+	 * 
+	 * @return The sequence number.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	public String getState() {
+		return state;
+	}
+
+	public String getCode() {
+		return code;
+	}
+
+	/**
+	 * When the command was dispatched.
+	 * 
+	 * @return The time in milliseconds since the epoch.
+	 */
+	public long getCreatedTime() {
+		return createdTime;
+	}
+}
@@ -0,0 +1,38 @@
+package uk.me.ruthmills.alarmkeypad.model;
+
+/**
+ * Published once a command has been sent to the alarm endpoint, or given up
+ * on.
+ * 
+ * @author ruth
+ */
+public class CommandResultEvent {
+
+	private final Command command;
+	private final boolean success;
+	private final int attempts;
+
+	public CommandResultEvent(Command command, boolean success, int attempts) {
+		this.command = command;
+		this.success = success;
+		this.attempts = attempts;
+	}
+
+	public Command getCommand() {
+		return command;
+	}
+
+	public boolean isSuccess() {
+		return success;
+	}
+
+	/**
+	 * The number of times the command was sent. Zero if it was failed without
+	 * being sent, because the endpoint is known to be down.
+	 * 
+	 * @return The number of attempts.
+	 */
+	public int getAttempts() {
+		return attempts;
+	}
+}
@@ -0,0 +1,82 @@
+package uk.me.ruthmills.alarmkeypad.model;
+
+/**
+ * An event read back from the event journal.
+ * 
+ * @author ruth
+ */
+public class JournalEvent {
+
+	private final long number;
+	private final long time;
+	private final String type;
+	private final String state;
+	private final String key;
+	private final long sequence;
+	private final boolean success;
+
+	public JournalEvent(long number, long time, String type, String state, String key, long sequence,
+			boolean success) {
+		this.number = number;
+		this.time = time;
+		this.type = type;
+		this.state = state;
+		this.key = key;
+		this.sequence = sequence;
+		this.success = success;
+	}
+
+	/**
+	 * The order the event was recorded in.
+	 * 
+	 * @return The event number.
+	 */
+	public long getNumber() {
+		return number;
+	}
+
+	/**
+	 * When the event happened.
+	 * 
+	 * @return The time in nanoseconds since the epoch.
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	/**
+	 * The alarm state or command the event is about.
+	 * 
+	 * @return The state, or null if there is none.
+	 */
+	public String getState() {
+		return state;
+	}
+
+	/**
+	 * The key pressed. Digits are not recorded, so that no code can be read
+	 * back.
+	 * 
+	 * @return The key, "digit" for any digit, or null if the event is not a key.
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * The sequence number of the command the event is about.
+	 * 
+	 * @return The sequence number, or zero if there is no command.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	public boolean isSuccess() {
+		return success;
+	}
+}
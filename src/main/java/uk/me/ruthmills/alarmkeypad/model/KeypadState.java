@@ -0,0 +1,77 @@
+package uk.me.ruthmills.alarmkeypad.model;
+
+/**
+ * What the keypad is showing: the alarm state, and the progress of any grace
+ * period or countdown. Times are in milliseconds since the epoch, or zero if
+ * there is no such time, so that progress can be shown without polling.
+ * 
+ * @author ruth
+ */
+public class KeypadState {
+
+	private final String state;
+	private final long changedTime;
+	private final String exitState;
+	private final long exitWarningTime;
+	private final long exitTime;
+	private final long countdownWarningTime;
+
+	public KeypadState(String state, long changedTime, String exitState, long exitWarningTime, long exitTime,
+			long countdownWarningTime) {
+		this.state = state;
+		this.changedTime = changedTime;
+		this.exitState = exitState;
+		this.exitWarningTime = exitWarningTime;
+		this.exitTime = exitTime;
+		this.countdownWarningTime = countdownWarningTime;
+	}
+
+	public String getState() {
+		return state;
+	}
+
+	/**
+	 * When the alarm state was last pushed to the keypad.
+	 * 
+	 * @return The time, or zero if it hasn't been pushed since starting.
+	 */
+	public long getChangedTime() {
+		return changedTime;
+	}
+
+	/**
+	 * The state to be armed once the grace period is over.
+	 * 
+	 * @return The state, or null if there is no grace period.
+	 */
+	public String getExitState() {
+		return exitState;
+	}
+
+	/**
+	 * When the grace period starts warning that it is nearly over.
+	 * 
+	 * @return The time.
+	 */
+	public long getExitWarningTime() {
+		return exitWarningTime;
+	}
+
+	/**
+	 * When the grace period is over, and the alarm will be armed.
+	 * 
+	 * @return The time.
+	 */
+	public long getExitTime() {
+		return exitTime;
+	}
+
+	/**
+	 * When the countdown starts warning that the alarm is about to go off.
+	 * 
+	 * @return The time, or zero if the alarm is not counting down.
+	 */
+	public long getCountdownWarningTime() {
+		return countdownWarningTime;
+	}
+}
@@ -0,0 +1,58 @@
+package uk.me.ruthmills.alarmkeypad.model;
+
+import java.util.Map;
+
+/**
+ * A snapshot of a latency histogram, in milliseconds.
+ * 
+ * @author ruth
+ */
+public class LatencyMetrics {
+
+	private final long count;
+	private final double mean;
+	private final double p50;
+	private final double p90;
+	private final double p99;
+	private final double max;
+	private final Map<String, Long> buckets;
+
+	public LatencyMetrics(long count, double mean, double p50, double p90, double p99, double max,
+			Map<String, Long> buckets) {
+		this.count = count;
+		this.mean = mean;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p99 = p99;
+		this.max = max;
+		this.buckets = buckets;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public double getP50() {
+		return p50;
+	}
+
+	public double getP90() {
+		return p90;
+	}
+
+	public double getP99() {
+		return p99;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	public Map<String, Long> getBuckets() {
+		return buckets;
+	}
+}
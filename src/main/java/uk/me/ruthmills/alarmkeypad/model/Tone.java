@@ -0,0 +1,35 @@
+package uk.me.ruthmills.alarmkeypad.model;
+
+/**
+ * One note of a {@link BuzzerPattern}.
+ * 
+ * @author ruth
+ */
+public class Tone {
+
+	private final int frequency;
+	private final long duration;
+
+	/**
+	 * Create a tone.
+	 * 
+	 * @param frequency The frequency in hertz, or zero for silence.
+	 * @param duration  How long to play the tone for, in milliseconds.
+	 */
+	public Tone(int frequency, long duration) {
+		this.frequency = frequency;
+		this.duration = duration;
+	}
+
+	public static Tone rest(long duration) {
+		return new Tone(0, duration);
+	}
+
+	public int getFrequency() {
+		return frequency;
+	}
+
+	public long getDuration() {
+		return duration;
+	}
+}
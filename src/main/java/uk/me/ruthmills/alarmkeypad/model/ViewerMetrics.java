@@ -0,0 +1,71 @@
+package uk.me.ruthmills.alarmkeypad.model;
+
+/**
+ * Metrics for one connected viewer of a camera stream.
+ * 
+ * @author ruth
+ */
+public class ViewerMetrics {
+
+	private final String remoteAddress;
+	private final long connectedTime;
+	private final long sentFrames;
+	private final long skippedFrames;
+	private final long droppedFrames;
+	private final LatencyMetrics latency;
+
+	public ViewerMetrics(String remoteAddress, long connectedTime, long sentFrames, long skippedFrames,
+			long droppedFrames, LatencyMetrics latency) {
+		this.remoteAddress = remoteAddress;
+		this.connectedTime = connectedTime;
+		this.sentFrames = sentFrames;
+		this.skippedFrames = skippedFrames;
+		this.droppedFrames = droppedFrames;
+		this.latency = latency;
+	}
+
+	public String getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	/**
+	 * When the viewer connected.
+	 * 
+	 * @return The time in milliseconds since the epoch.
+	 */
+	public long getConnectedTime() {
+		return connectedTime;
+	}
+
+	public long getSentFrames() {
+		return sentFrames;
+	}
+
+	/**
+	 * Frames skipped to keep to the viewer's frame rate.
+	 * 
+	 * @return The number of frames.
+	 */
+	public long getSkippedFrames() {
+		return skippedFrames;
+	}
+
+	/**
+	 * Frames dropped from the viewer's queue because it fell behind.
+	 * 
+	 * @return The number of frames.
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames;
+	}
+
+	/**
+	 * The time from the start of each frame being read from the camera to the
+	 * whole frame being taken by the viewer's socket.
+	 * 
+	 * @return The latency metrics.
+	 */
+	public LatencyMetrics getLatency() {
+		return latency;
+	}
+}
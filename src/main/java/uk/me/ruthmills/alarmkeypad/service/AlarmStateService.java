@@ -1,7 +1,11 @@
 package uk.me.ruthmills.alarmkeypad.service;
 
+import uk.me.ruthmills.alarmkeypad.model.AlarmState;
+
 public interface AlarmStateService {
 
+	public AlarmState getAlarmState();
+
 	public void armedAway();
 
 	public void armedNight();
@@ -17,8 +21,4 @@ public interface AlarmStateService {
 	public void invalidCode();
 
 	public void keyPressed(char key);
-
-	public void tick();
-
-	public void sleep(int milliseconds);
 }
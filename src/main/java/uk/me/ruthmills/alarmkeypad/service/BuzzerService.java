@@ -1,6 +1,21 @@
 package uk.me.ruthmills.alarmkeypad.service;
 
+import uk.me.ruthmills.alarmkeypad.model.BuzzerPattern;
+
 public interface BuzzerService {
 
-	public void setBuzzer(boolean buzzer);
+	/**
+	 * Play a pattern, in place of the one playing unless that has a higher
+	 * priority. Returns straight away.
+	 *
+	 * @param pattern The pattern.
+	 */
+	public void play(BuzzerPattern pattern);
+
+	/**
+	 * Stop a pattern, if it is still playing. Returns straight away.
+	 *
+	 * @param pattern The pattern.
+	 */
+	public void stop(BuzzerPattern pattern);
 }
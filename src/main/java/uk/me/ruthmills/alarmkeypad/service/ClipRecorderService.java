@@ -0,0 +1,10 @@
+package uk.me.ruthmills.alarmkeypad.service;
+
+import uk.me.ruthmills.alarmkeypad.model.AlarmState;
+
+public interface ClipRecorderService {
+
+	public void record(AlarmState alarmState);
+
+	public boolean isRecording();
+}
@@ -0,0 +1,8 @@
+package uk.me.ruthmills.alarmkeypad.service;
+
+import uk.me.ruthmills.alarmkeypad.model.Command;
+
+public interface CommandDispatcherService {
+
+	public Command dispatch(String state, String code);
+}
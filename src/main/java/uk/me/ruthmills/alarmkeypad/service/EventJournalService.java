@@ -0,0 +1,20 @@
+package uk.me.ruthmills.alarmkeypad.service;
+
+import java.util.List;
+
+import uk.me.ruthmills.alarmkeypad.model.JournalEvent;
+
+public interface EventJournalService {
+
+	public void keyPressed(char key);
+
+	public void commandSent(String state, long sequence);
+
+	public void statePushed(String state);
+
+	public void graceStarted(String state);
+
+	public void graceExpired(String state);
+
+	public List<JournalEvent> getEvents(long from, long to, long after, int limit);
+}
@@ -0,0 +1,37 @@
+package uk.me.ruthmills.alarmkeypad.service;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.AsyncContext;
+
+import uk.me.ruthmills.alarmkeypad.model.CameraMetrics;
+import uk.me.ruthmills.alarmkeypad.stream.Frame;
+import uk.me.ruthmills.alarmkeypad.stream.FrameQueue;
+
+public interface MjpegStreamService {
+
+	public List<String> getCameraNames();
+
+	public boolean hasCamera(String camera);
+
+	public String getDefaultCamera();
+
+	public void addViewer(String camera, AsyncContext asyncContext, double maxFps, boolean adaptive)
+			throws IOException;
+
+	public void addReplayViewer(String camera, AsyncContext asyncContext, long from, double speed, double maxFps,
+			boolean adaptive) throws IOException;
+
+	public FrameQueue subscribe(String camera, int capacity, Runnable listener);
+
+	public void unsubscribe(String camera, FrameQueue queue);
+
+	public Frame getLatestFrame(String camera);
+
+	public Frame getFrame(String camera, long timestamp);
+
+	public List<Frame> getRecentFrames(String camera, long from);
+
+	public List<CameraMetrics> getMetrics();
+}
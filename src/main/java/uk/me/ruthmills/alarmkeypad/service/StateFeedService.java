@@ -0,0 +1,17 @@
+package uk.me.ruthmills.alarmkeypad.service;
+
+import java.io.IOException;
+
+import javax.servlet.AsyncContext;
+
+import uk.me.ruthmills.alarmkeypad.feed.StateSnapshot;
+import uk.me.ruthmills.alarmkeypad.model.KeypadState;
+
+public interface StateFeedService {
+
+	public void publish(KeypadState state);
+
+	public StateSnapshot getSnapshot();
+
+	public void addSubscriber(AsyncContext asyncContext) throws IOException;
+}
@@ -1,15 +1,12 @@
 package uk.me.ruthmills.alarmkeypad.service.impl;
 
-import static com.pi4j.io.gpio.PinPullResistance.PULL_UP;
-import static com.pi4j.io.gpio.PinState.HIGH;
-import static com.pi4j.io.gpio.RaspiPin.GPIO_22;
-import static com.pi4j.io.gpio.RaspiPin.GPIO_23;
-import static com.pi4j.io.gpio.RaspiPin.GPIO_24;
-import static com.pi4j.io.gpio.RaspiPin.GPIO_25;
-import static com.pi4j.io.gpio.RaspiPin.GPIO_26;
-import static com.pi4j.io.gpio.RaspiPin.GPIO_27;
-import static com.pi4j.io.gpio.RaspiPin.GPIO_28;
-import static com.pi4j.io.gpio.RaspiPin.GPIO_29;
+import static uk.me.ruthmills.alarmkeypad.hardware.KeypadLayout.COLUMN_PINS;
+import static uk.me.ruthmills.alarmkeypad.hardware.KeypadLayout.MATRIX;
+import static uk.me.ruthmills.alarmkeypad.hardware.KeypadLayout.ROW_PINS;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -19,84 +16,190 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import com.pi4j.io.gpio.GpioController;
-import com.pi4j.io.gpio.GpioFactory;
-import com.pi4j.io.gpio.GpioPinDigitalInput;
-import com.pi4j.io.gpio.GpioPinDigitalOutput;
-import com.pi4j.io.gpio.Pin;
-
+import uk.me.ruthmills.alarmkeypad.hardware.Board;
+import uk.me.ruthmills.alarmkeypad.hardware.InputPin;
+import uk.me.ruthmills.alarmkeypad.hardware.OutputPin;
+import uk.me.ruthmills.alarmkeypad.hardware.PinListener;
 import uk.me.ruthmills.alarmkeypad.service.AlarmKeypadService;
 import uk.me.ruthmills.alarmkeypad.service.AlarmStateService;
 
+/**
+ * Reads the keypad matrix.
+ *
+ * While no key is down, all the columns are driven low and the keypad thread
+ * waits for a falling edge on one of the rows, so an idle keypad costs
+ * nothing. On an edge the matrix is scanned a column at a time until every key
+ * has been released.
+ *
+ * A key counts as pressed when two scans in a row see it, a fraction of a
+ * millisecond apart, and as released once no scan has seen it for the release
+ * debounce time. Several keys can be held at once. When the keys held form
+ * three corners of a rectangle, the fourth would read as pressed too, so no
+ * new presses are taken until the matrix is unambiguous again.
+ *
+ * @author ruth
+ */
 @Service
 public class AlarmKeypadServiceImpl implements AlarmKeypadService {
 
-	private static final Pin COLUMN_PINS[] = { GPIO_22, GPIO_23, GPIO_24, GPIO_25 };
-	private static final Pin ROW_PINS[] = { GPIO_26, GPIO_27, GPIO_28, GPIO_29 };
-	private static final char MATRIX[][] = { { '1', '2', '3', 'A' }, { '4', '5', '6', 'B' }, { '7', '8', '9', 'C' },
-			{ '*', '0', '#', 'D' } };
+	private static final long CONFIRM_INTERVAL = TimeUnit.MICROSECONDS.toNanos(200L);
+	private static final long SCAN_INTERVAL = TimeUnit.MILLISECONDS.toNanos(2L);
+	private static final long RELEASE_DEBOUNCE = TimeUnit.MILLISECONDS.toNanos(10L);
 
 	@Autowired
 	private AlarmStateService alarmStateService;
 
-	private volatile GpioController gpio;
-	private volatile GpioPinDigitalOutput[] columns;
-	private volatile GpioPinDigitalInput[] rows;
+	@Autowired
+	private Board board;
+
+	private volatile OutputPin[] columns;
+	private volatile InputPin[] rows;
 	private volatile boolean shutdown;
+	private volatile Thread thread;
+	private final AtomicBoolean edge = new AtomicBoolean();
 
 	private final Logger logger = LoggerFactory.getLogger(AlarmKeypadServiceImpl.class);
 
 	@PostConstruct
 	public void initialise() {
-		gpio = GpioFactory.getInstance();
-
-		columns = new GpioPinDigitalOutput[4];
+		columns = new OutputPin[4];
 		for (int col = 0; col < COLUMN_PINS.length; col++) {
-			columns[col] = gpio.provisionDigitalOutputPin(COLUMN_PINS[col], "Column " + (col + 1), HIGH);
-			columns[col].setShutdownOptions(true, HIGH);
+			columns[col] = board.provisionOutputPin(COLUMN_PINS[col], "Column " + (col + 1), false, true);
 		}
 
-		rows = new GpioPinDigitalInput[4];
+		PinListener listener = high -> {
+			if (!high) {
+				wake();
+			}
+		};
+		rows = new InputPin[4];
 		for (int row = 0; row < ROW_PINS.length; row++) {
-			rows[row] = gpio.provisionDigitalInputPin(ROW_PINS[row], "Row " + (row + 1), PULL_UP);
-			rows[row].setShutdownOptions(true, HIGH);
+			rows[row] = board.provisionInputPin(ROW_PINS[row], "Row " + (row + 1));
+			rows[row].addListener(listener);
 		}
 
-		Runnable runnable = new AlarmKeypadRunnable();
-		Thread thread = new Thread(runnable);
+		thread = new Thread(new AlarmKeypadRunnable(), "alarm-keypad");
 		thread.start();
 	}
 
 	@PreDestroy
 	public void shutdown() {
 		shutdown = true;
+		LockSupport.unpark(thread);
+	}
+
+	private void wake() {
+		if (edge.compareAndSet(false, true)) {
+			LockSupport.unpark(thread);
+		}
 	}
 
 	private class AlarmKeypadRunnable implements Runnable {
 
+		private final long[] lastSeenTimes = new long[16];
+
 		@Override
 		public void run() {
 			while (!shutdown) {
 				try {
-					for (int col = 0; col < columns.length; col++) {
-						columns[col].low();
-						for (int row = 0; row < rows.length; row++) {
-							if (rows[row].isLow()) {
-								alarmStateService.keyPressed(MATRIX[row][col]);
-								while (rows[row].isLow()) {
-									alarmStateService.sleep(10);
-								}
-							}
-						}
-						columns[col].high();
+					waitForEdge();
+					if (!shutdown) {
+						scanUntilReleased();
 					}
-					alarmStateService.sleep(10);
 				} catch (Exception ex) {
 					logger.error("Exception in alarm keypad thread", ex);
 				}
 			}
+		}
+
+		private void waitForEdge() {
+			// Drive every column low, so that any key pulls its row low.
+			board.setState(false, columns);
+			while (!shutdown) {
+				// Forget the edges made by scanning, and check for a key already down.
+				edge.set(false);
+				if (anyRowLow()) {
+					return;
+				}
+				LockSupport.park(this);
+			}
+		}
+
+		private void scanUntilReleased() {
+			board.setState(true, columns);
+			int pressed = 0;
+			int previous = 0;
+			while (!shutdown) {
+				long now = System.nanoTime();
+				int keys = scan();
+				for (int key = 0; key < 16; key++) {
+					if ((keys & (1 << key)) != 0) {
+						lastSeenTimes[key] = now;
+					}
+				}
+
+				// Take new keys seen twice running, unless the matrix is ambiguous.
+				int confirmed = keys & previous & ~pressed;
+				if (confirmed != 0 && !isGhosting(keys)) {
+					for (int key = 0; key < 16; key++) {
+						if ((confirmed & (1 << key)) != 0) {
+							pressed |= 1 << key;
+							alarmStateService.keyPressed(MATRIX[key / 4][key % 4]);
+						}
+					}
+				}
+
+				// Let keys go once they have been up for the debounce time.
+				for (int key = 0; key < 16; key++) {
+					if ((pressed & ~keys & (1 << key)) != 0 && now - lastSeenTimes[key] >= RELEASE_DEBOUNCE) {
+						pressed &= ~(1 << key);
+					}
+				}
+
+				if (pressed == 0 && keys == 0 && previous == 0) {
+					return;
+				}
+				// Look again straight away to confirm a key that has just gone down.
+				long interval = (keys & ~previous) != 0 ? CONFIRM_INTERVAL : SCAN_INTERVAL;
+				previous = keys;
+				LockSupport.parkNanos(this, interval);
+			}
+		}
+
+		private int scan() {
+			int keys = 0;
+			for (int col = 0; col < columns.length; col++) {
+				columns[col].low();
+				for (int row = 0; row < rows.length; row++) {
+					if (rows[row].isLow()) {
+						keys |= 1 << (row * 4 + col);
+					}
+				}
+				columns[col].high();
+			}
+			return keys;
+		}
 
-			gpio.shutdown();
+		private boolean anyRowLow() {
+			for (int row = 0; row < rows.length; row++) {
+				if (rows[row].isLow()) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private boolean isGhosting(int keys) {
+			// Two rows sharing two columns make a rectangle, of which one corner may be false.
+			for (int row = 0; row < 3; row++) {
+				for (int other = row + 1; other < 4; other++) {
+					int shared = (keys >> (row * 4)) & (keys >> (other * 4)) & 0xf;
+					if (Integer.bitCount(shared) >= 2) {
+						return true;
+					}
+				}
+			}
+			return false;
 		}
 	}
 }
@@ -8,32 +8,55 @@ import static uk.me.ruthmills.alarmkeypad.model.AlarmState.DISARMED;
 import static uk.me.ruthmills.alarmkeypad.model.AlarmState.TRIGGERED;
 import static uk.me.ruthmills.alarmkeypad.model.AlarmState.UNKNOWN;
 
-import java.time.LocalDateTime;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.MediaType;
-import org.springframework.http.client.ClientHttpRequestFactory;
-import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
+import uk.me.ruthmills.alarmkeypad.animation.Animation;
+import uk.me.ruthmills.alarmkeypad.animation.Animator;
+import uk.me.ruthmills.alarmkeypad.animation.Keyframe;
+import uk.me.ruthmills.alarmkeypad.loop.Clock;
+import uk.me.ruthmills.alarmkeypad.loop.EventLoop;
+import uk.me.ruthmills.alarmkeypad.loop.Timeout;
 import uk.me.ruthmills.alarmkeypad.model.AlarmState;
+import uk.me.ruthmills.alarmkeypad.model.AlarmStateChangedEvent;
+import uk.me.ruthmills.alarmkeypad.model.BuzzerPattern;
+import uk.me.ruthmills.alarmkeypad.model.Command;
+import uk.me.ruthmills.alarmkeypad.model.CommandResultEvent;
+import uk.me.ruthmills.alarmkeypad.model.KeypadState;
+import uk.me.ruthmills.alarmkeypad.model.Tone;
 import uk.me.ruthmills.alarmkeypad.service.AlarmStateService;
 import uk.me.ruthmills.alarmkeypad.service.BuzzerService;
+import uk.me.ruthmills.alarmkeypad.service.CommandDispatcherService;
+import uk.me.ruthmills.alarmkeypad.service.EventJournalService;
 import uk.me.ruthmills.alarmkeypad.service.LedService;
-
+import uk.me.ruthmills.alarmkeypad.service.StateFeedService;
+
+/**
+ * The keypad's view of the alarm state, and what to do with each key.
+ *
+ * Key presses, state pushes and command results can come from any thread, so
+ * each is posted to an event loop and handled on its thread, which is the only
+ * one to touch the state. The timeouts are timers on the loop rather than
+ * times checked on a schedule. After handling anything that may have changed
+ * what the keypad shows, the state is published to the state feed.
+ *
+ * @author ruth
+ */
 @Service
 public class AlarmStateServiceImpl implements AlarmStateService {
 
@@ -43,6 +66,41 @@ public class AlarmStateServiceImpl implements AlarmStateService {
 	private static final long EXIT_WARNING_TIMEOUT = 30000L;
 	private static final long EXIT_TIMEOUT = 40000L;
 	private static final long COUNTDOWN_WARNING_TIMEOUT = 20000L;
+	private static final int MAX_CODE_LENGTH = 8;
+	private static final int BEEP_FREQUENCY = 2400;
+	private static final int KEY_PRIORITY = 1;
+	private static final int EXIT_PRIORITY = 2;
+	private static final int COUNTDOWN_PRIORITY = 3;
+
+	private static final BuzzerPattern KEY_CLICK = BuzzerPattern.once("key click", KEY_PRIORITY,
+			new Tone(BEEP_FREQUENCY, 100L));
+	private static final BuzzerPattern KEY_BEEP = BuzzerPattern.once("key beep", KEY_PRIORITY,
+			new Tone(BEEP_FREQUENCY, 250L));
+	private static final BuzzerPattern EXIT_BEEPS = slowBeeps("exit", EXIT_PRIORITY);
+	private static final BuzzerPattern EXIT_WARNING_BEEPS = fastBeeps("exit warning", EXIT_PRIORITY);
+	private static final BuzzerPattern COUNTDOWN_BEEPS = slowBeeps("countdown", COUNTDOWN_PRIORITY);
+	private static final BuzzerPattern COUNTDOWN_WARNING_BEEPS = fastBeeps("countdown warning", COUNTDOWN_PRIORITY);
+
+	private static final Keyframe ALL_OFF = leds(0L, false, false, false, false);
+	private static final Keyframe[] CODE_LENGTH_KEYFRAMES = getCodeLengthKeyframes();
+	private static final Animation[] CODE_LENGTH_ANIMATIONS = getCodeLengthAnimations();
+	private static final Animation OFF = Animation.once("off", ALL_OFF);
+	private static final Animation FLASH_TRIGGERED = Animation.loop("triggered", leds(250L, true, true, true, true),
+			leds(250L, false, false, false, false));
+	private static final Animation FLASH_COUNTDOWN = Animation.loop("countdown", leds(250L, false, false, false, true),
+			leds(250L, false, false, true, false), leds(250L, false, true, false, false),
+			leds(250L, true, false, false, false)).withSound(COUNTDOWN_BEEPS);
+	private static final Animation FLASH_COUNTDOWN_WARNING = Animation.loop("countdown warning",
+			leds(250L, false, false, false, true), leds(250L, false, false, true, false),
+			leds(250L, false, true, false, false), leds(250L, true, false, false, false))
+			.withSound(COUNTDOWN_WARNING_BEEPS);
+	private static final Map<AlarmState, Animation> FLASH_STATE = getStateAnimations("state", null);
+	private static final Map<AlarmState, Animation> FLASH_EXIT = getStateAnimations("exit", EXIT_BEEPS);
+	private static final Map<AlarmState, Animation> FLASH_EXIT_WARNING = getStateAnimations("exit warning",
+			EXIT_WARNING_BEEPS);
+	// Wait a second after anything else, then flash red every four seconds.
+	private static final Animation FLASH_NORMAL = new Animation("normal", 1, leds(1000L, false, false, false, false),
+			leds(250L, true, false, false, false), leds(3750L, false, false, false, false));
 
 	@Autowired
 	private BuzzerService buzzerService;
@@ -50,110 +108,154 @@ public class AlarmStateServiceImpl implements AlarmStateService {
 	@Autowired
 	private LedService ledService;
 
-	@Value("${endpoint}")
-	private String endpoint;
+	@Autowired
+	private CommandDispatcherService commandDispatcherService;
+
+	@Autowired
+	private StateFeedService stateFeedService;
+
+	@Autowired
+	private EventJournalService eventJournalService;
 
-	@Value("${token}")
-	private String token;
+	@Autowired
+	private ApplicationEventPublisher eventPublisher;
 
 	private volatile AlarmState alarmState;
-	private volatile StringBuilder code;
-	private volatile Date lastKeyPressTime;
-	private volatile Date lastCommandTime;
-	private volatile Date lastStateChangeTime;
-	private volatile Date requestedExitTime;
-	private volatile AlarmState requestedExitState;
-	private volatile String requestedCode;
-	private volatile boolean noNormalFlashNext;
-
-	private RestTemplate restTemplate;
+	private EventLoop eventLoop;
+	private ScheduledExecutorService executor;
+	private Animator animator;
+
+	// Only touched by the event loop thread.
+	private final char[] code = new char[MAX_CODE_LENGTH];
+	private int codeLength;
+	private Timeout keyPressTimeout;
+	private Timeout commandTimeout;
+	private Timeout stateChangeTimeout;
+	private Timeout countdownWarningTimeout;
+	private Timeout exitWarningTimeout;
+	private Timeout exitTimeout;
+	private AlarmState requestedExitState;
+	private String requestedCode;
+	private long changedTime;
+	private long exitWarningTime;
+	private long exitTime;
+	private long countdownWarningTime;
+
 	private final Logger logger = LoggerFactory.getLogger(AlarmStateServiceImpl.class);
 
 	@PostConstruct
 	public void initialise() {
 		alarmState = UNKNOWN;
-		code = new StringBuilder();
-		restTemplate = new RestTemplate(getClientHttpRequestFactory());
+		executor = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("led-animator-"));
+		eventLoop = new EventLoop(Clock.SYSTEM);
+		animator = new Animator(executor, ledService, buzzerService, () -> eventLoop.execute(this::updateAnimation));
+		eventLoop.execute(() -> {
+			updateAnimation();
+			publishState();
+		});
+		eventLoop.start("alarm-state");
+		commandDispatcherService.dispatch("initialise", "");
+		logger.info("Alarm State set to unknown");
+	}
+
+	@PreDestroy
+	public void shutdown() {
 		try {
-			sendCommand("initialise", "");
-		} catch (Exception ex) {
-			logger.error("Failed to send initialise command", ex);
+			eventLoop.stop();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
 		}
-		logger.info("Alarm State set to unknown");
+		animator.stop();
+		executor.shutdownNow();
 	}
 
-	private ClientHttpRequestFactory getClientHttpRequestFactory() {
-		int timeout = 9000;
-		RequestConfig config = RequestConfig.custom().setConnectTimeout(timeout).setConnectionRequestTimeout(timeout)
-				.setSocketTimeout(timeout).build();
-		CloseableHttpClient client = HttpClientBuilder.create().setDefaultRequestConfig(config).build();
-		return new HttpComponentsClientHttpRequestFactory(client);
+	@Override
+	public AlarmState getAlarmState() {
+		return alarmState;
 	}
 
 	@Override
 	public void armedAway() {
-		alarmState = ARMED_AWAY;
-		lastStateChangeTime = new Date();
-		lastCommandTime = null;
-		cancelExit();
-		logger.info("Alarm State set to armed_away");
+		eventLoop.execute(() -> changeState(ARMED_AWAY));
 	}
 
 	@Override
 	public void armedNight() {
-		alarmState = ARMED_NIGHT;
-		lastStateChangeTime = new Date();
-		lastCommandTime = null;
-		cancelExit();
-		logger.info("Alarm State set to armed_night");
+		eventLoop.execute(() -> changeState(ARMED_NIGHT));
 	}
 
 	@Override
 	public void armedHome() {
-		alarmState = ARMED_HOME;
-		lastStateChangeTime = new Date();
-		lastCommandTime = null;
-		cancelExit();
-		logger.info("Alarm State set to armed_home");
+		eventLoop.execute(() -> changeState(ARMED_HOME));
 	}
 
 	@Override
 	public void disarmed() {
-		alarmState = DISARMED;
-		lastStateChangeTime = new Date();
-		lastCommandTime = null;
-		cancelExit();
-		logger.info("Alarm State set to disarmed");
+		eventLoop.execute(() -> changeState(DISARMED));
 	}
 
 	@Override
 	public void countdown() {
-		alarmState = COUNTDOWN;
-		lastStateChangeTime = new Date();
-		lastCommandTime = null;
-		cancelExit();
-		logger.info("Alarm State set to countdown");
+		eventLoop.execute(() -> changeState(COUNTDOWN));
 	}
 
 	@Override
 	public void triggered() {
-		alarmState = TRIGGERED;
-		lastStateChangeTime = new Date();
-		lastCommandTime = null;
-		cancelExit();
-		logger.info("Alarm State set to triggered");
+		eventLoop.execute(() -> changeState(TRIGGERED));
+	}
+
+	@EventListener
+	public void commandResult(CommandResultEvent event) {
+		if (!event.isSuccess()) {
+			eventLoop.execute(() -> commandFailed(event.getCommand()));
+		}
 	}
 
 	@Override
 	public void invalidCode() {
-		cancelExit();
-		logger.info("Invalid Code entered");
+		eventJournalService.statePushed("invalid_code");
+		eventLoop.execute(() -> {
+			cancelExit();
+			logger.info("Invalid Code entered");
+			restartAnimation();
+			publishState();
+		});
 	}
 
 	@Override
 	public void keyPressed(char key) {
+		eventJournalService.keyPressed(key);
+		eventLoop.execute(() -> handleKey(key));
+	}
+
+	private void changeState(AlarmState alarmState) {
+		this.alarmState = alarmState;
+		changedTime = System.currentTimeMillis();
+		eventJournalService.statePushed(getStateName(alarmState));
+		markStateChange();
+		commandTimeout = cancel(commandTimeout);
+		cancelExit();
+		logger.info("Alarm State set to " + getStateName(alarmState));
+		restartAnimation();
+		publishState();
+		eventPublisher.publishEvent(new AlarmStateChangedEvent(alarmState));
+	}
+
+	private void commandFailed(Command command) {
+		logger.info("Command failed: " + command.getState());
+		if (command.getState().equals("validate") && command.getCode().equals(requestedCode)) {
+			// The code can't be checked, so don't go on to arm.
+			cancelExit();
+		}
+		// Show the current state, rather than wait for a change that isn't coming.
+		commandTimeout = cancel(commandTimeout);
+		markStateChange();
+		restartAnimation();
+		publishState();
+	}
+
+	private void handleKey(char key) {
 		cancelExit();
-		logger.info("Key pressed: " + key);
 		if (key >= '0' && key <= '9') {
 			handleCodeNumber(key);
 		} else if (key >= 'A' && key <= 'D') {
@@ -163,48 +265,53 @@ public class AlarmStateServiceImpl implements AlarmStateService {
 		} else if (key == '#') {
 			handleShowState();
 		}
+		publishState();
 	}
 
 	private void handleCodeNumber(char key) {
-		if (code.length() < 8) {
-			lastKeyPressTime = new Date();
-			code.append(key);
-			logger.info("Code entered: " + code.toString());
-			showCodeLength();
-			beep(100);
+		if (codeLength < MAX_CODE_LENGTH) {
+			keyPressTimeout = restart(keyPressTimeout, KEY_PRESS_TIMEOUT, this::keyPressTimedOut);
+			code[codeLength++] = key;
+			logger.debug("Code length: " + codeLength);
+			beep(KEY_CLICK, CODE_LENGTH_KEYFRAMES[codeLength]);
+		} else {
+			updateAnimation();
 		}
 	}
 
 	private void handleCommand(char key) {
-		if (code.length() > 0) {
+		if (codeLength > 0) {
 			if (!alarmState.equals(COUNTDOWN) && !alarmState.equals(TRIGGERED)) {
 				if (getState(key).equals(alarmState)) {
 					handleShowState();
 				} else if (getStateName(key).equals("armed_away") || getStateName(key).equals("armed_night")) {
 					logger.info("Grace period entered for state change to: " + getStateName(key));
-					beep(250);
+					eventJournalService.graceStarted(getStateName(key));
 					requestedExitState = getState(key);
-					requestedExitTime = new Date();
-					requestedCode = code.toString();
-					lastCommandTime = null;
-					ledService.setLeds(false, false, false, false);
-					sendCommand("validate", requestedCode);
+					exitWarningTimeout = restart(exitWarningTimeout, EXIT_WARNING_TIMEOUT, this::updateAnimation);
+					exitTimeout = restart(exitTimeout, EXIT_TIMEOUT, this::exitTimedOut);
+					exitWarningTime = System.currentTimeMillis() + EXIT_WARNING_TIMEOUT;
+					exitTime = System.currentTimeMillis() + EXIT_TIMEOUT;
+					requestedCode = getCode();
+					commandTimeout = cancel(commandTimeout);
+					beep(KEY_BEEP, ALL_OFF);
+					commandDispatcherService.dispatch("validate", requestedCode);
 				} else {
-					beep(250);
-					lastCommandTime = new Date();
-					ledService.setLeds(false, false, false, false);
-					sendCommand(getStateName(key), code.toString());
+					commandTimeout = restart(commandTimeout, COMMAND_TIMEOUT, this::updateAnimation);
+					beep(KEY_BEEP, ALL_OFF);
+					commandDispatcherService.dispatch(getStateName(key), getCode());
 				}
 			} else {
-				beep(250);
-				lastCommandTime = new Date();
-				ledService.setLeds(false, false, false, false);
+				commandTimeout = restart(commandTimeout, COMMAND_TIMEOUT, this::updateAnimation);
+				beep(KEY_BEEP, ALL_OFF);
 				if (getStateName(key).equals("disarmed")) {
-					sendCommand(getStateName(key), code.toString());
+					commandDispatcherService.dispatch(getStateName(key), getCode());
 				}
 			}
-			lastKeyPressTime = null;
+			keyPressTimeout = cancel(keyPressTimeout);
 			clearCode();
+		} else {
+			updateAnimation();
 		}
 	}
 
@@ -253,237 +360,188 @@ public class AlarmStateServiceImpl implements AlarmStateService {
 		}
 	}
 
-	private void sendCommand(String state, String code) {
-		logger.info("Sending command to update state to: " + state);
-
-		StringBuilder requestJson = new StringBuilder();
-		requestJson.append("{\"state\": \"");
-		requestJson.append(state);
-		if (code.length() > 0) {
-			requestJson.append(" ");
-		}
-		requestJson.append(code);
-		requestJson.append("\"}");
-		logger.info("JSON to send: " + requestJson);
-
-		HttpHeaders headers = new HttpHeaders();
-		headers.setContentType(MediaType.APPLICATION_JSON);
-		headers.set("Authorization", "Bearer " + token);
-
-		logger.info("About to send POST to " + endpoint);
-		restTemplate.postForEntity(endpoint, new HttpEntity<String>(requestJson.toString(), headers), String.class);
-
-		logger.info("About to send DELETE to " + endpoint);
-		restTemplate.exchange(endpoint, HttpMethod.DELETE, new HttpEntity<String>("", headers), String.class);
-	}
-
 	private void handleDelete() {
-		if (code.length() > 0) {
-			lastKeyPressTime = new Date();
-			code.delete(code.length() - 1, code.length());
-			logger.info("Code entered: " + code.toString());
-			showCodeLength();
-			beep(100);
+		if (codeLength > 0) {
+			keyPressTimeout = restart(keyPressTimeout, KEY_PRESS_TIMEOUT, this::keyPressTimedOut);
+			codeLength--;
+			logger.debug("Code length: " + codeLength);
+			beep(KEY_CLICK, CODE_LENGTH_KEYFRAMES[codeLength]);
+		} else {
+			updateAnimation();
 		}
 	}
 
 	private void handleShowState() {
 		clearCode();
 		logger.info("Hash key pressed. Showing current state: " + getStateName(alarmState));
-		beep(250);
-		lastKeyPressTime = null;
-		lastStateChangeTime = new Date();
-		ledService.setLeds(false, false, false, false);
+		keyPressTimeout = cancel(keyPressTimeout);
+		markStateChange();
+		beep(KEY_BEEP, ALL_OFF);
 	}
 
-	private void showCodeLength() {
-		ledService.setLeds(code.length() >= 1 ^ code.length() >= 5, code.length() >= 2 ^ code.length() >= 6,
-				code.length() >= 3 ^ code.length() >= 7, code.length() >= 4 ^ code.length() >= 8);
+	private String getCode() {
+		return new String(code, 0, codeLength);
 	}
 
 	private void clearCode() {
-		if (code.length() > 0) {
-			code.delete(0, code.length());
-		}
+		Arrays.fill(code, '\0');
+		codeLength = 0;
 	}
 
-	@Override
-	public void tick() {
-		if (!keyPressed()) {
-			clearCode();
-			if (alarmState.equals(TRIGGERED)) {
-				flashTriggered();
-			} else if (alarmState.equals(COUNTDOWN)) {
-				if (beforeCountdownWarningTime()) {
-					flashCountdown();
-				} else {
-					flashCountdownWarning();
-				}
-			} else if (exitRequested()) {
-				if (beforeExitWarningTime()) {
-					flashExit();
-				} else if (beforeExitTime()) {
-					flashExitWarning();
-				} else {
-					logger.info("Grace period expired");
-					requestedExitTime = null;
-					sendCommand(getStateName(requestedExitState), requestedCode);
-					cancelExit();
-				}
-			} else if (stateChanged()) {
-				flashState();
-			} else {
-				flashNormal();
-			}
-		}
+	private void markStateChange() {
+		stateChangeTimeout = restart(stateChangeTimeout, STATE_CHANGE_TIMEOUT, this::updateAnimation);
+		countdownWarningTimeout = restart(countdownWarningTimeout, COUNTDOWN_WARNING_TIMEOUT, this::updateAnimation);
+		countdownWarningTime = System.currentTimeMillis() + COUNTDOWN_WARNING_TIMEOUT;
 	}
 
-	private void flashTriggered() {
-		flash(250, true, true, true, true);
-		flash(250, false, false, false, false);
-		flash(250, true, true, true, true);
-		flash(0, false, false, false, false);
-		noNormalFlashNext = true;
+	private void keyPressTimedOut() {
+		clearCode();
+		updateAnimation();
 	}
 
-	private void flashCountdown() {
-		if (!keyPressed() && !commandRequested()) {
-			ledService.setLeds(false, false, false, true);
-			beep(250);
-		}
-		flash(250, false, false, true, false);
-		flash(250, false, true, false, false);
-		flash(0, true, false, false, false);
-		noNormalFlashNext = true;
+	private void exitTimedOut() {
+		logger.info("Grace period expired");
+		eventJournalService.graceExpired(getStateName(requestedExitState));
+		commandDispatcherService.dispatch(getStateName(requestedExitState), requestedCode);
+		cancelExit();
+		updateAnimation();
+		publishState();
 	}
 
-	private void flashCountdownWarning() {
-		if (!keyPressed() && !commandRequested()) {
-			ledService.setLeds(false, false, false, true);
-			beep(250);
-		}
-		flash(250, false, false, true, false);
-		if (!keyPressed() && !commandRequested()) {
-			ledService.setLeds(false, true, false, false);
-			beep(250);
+	private Timeout restart(Timeout timeout, long delay, Runnable task) {
+		cancel(timeout);
+		return eventLoop.schedule(TimeUnit.MILLISECONDS.toNanos(delay), task);
+	}
+
+	private static Timeout cancel(Timeout timeout) {
+		if (timeout != null) {
+			timeout.cancel();
 		}
-		flash(0, true, false, false, false);
-		noNormalFlashNext = true;
+		return null;
 	}
 
-	private void flashState() {
-		setLedForState(alarmState);
-		sleep(250);
-		flash(250, false, false, false, false);
-		setLedForState(alarmState);
-		sleep(250);
-		flash(0, false, false, false, false);
-		noNormalFlashNext = true;
+	private static boolean isPending(Timeout timeout) {
+		return timeout != null && !timeout.isDone();
 	}
 
-	private void flashExit() {
-		if (!keyPressed()) {
-			setLedForState(requestedExitState);
-			beep(250);
-		}
-		flash(250, false, false, false, false);
-		if (!keyPressed()) {
-			setLedForState(requestedExitState);
-			sleep(250);
-		}
-		flash(0, false, false, false, false);
-		noNormalFlashNext = true;
+	private void updateAnimation() {
+		animator.switchTo(getAnimation());
 	}
 
-	private void flashExitWarning() {
-		if (!keyPressed()) {
-			setLedForState(requestedExitState);
-			beep(250);
-		}
-		flash(250, false, false, false, false);
-		if (!keyPressed()) {
-			setLedForState(requestedExitState);
-			beep(250);
-		}
-		flash(0, false, false, false, false);
-		noNormalFlashNext = true;
+	private void restartAnimation() {
+		// Show the change straight away, even part way through a beep.
+		animator.play(getAnimation());
 	}
 
-	private void flashNormal() {
-		if (LocalDateTime.now().getSecond() % 4 == 0 && !noNormalFlashNext) {
-			flash(250, true, false, false, false);
+	private Animation getAnimation() {
+		if (keyPressed()) {
+			return CODE_LENGTH_ANIMATIONS[codeLength];
+		} else if (commandRequested()) {
+			return OFF;
+		} else if (alarmState.equals(TRIGGERED)) {
+			return FLASH_TRIGGERED;
+		} else if (alarmState.equals(COUNTDOWN)) {
+			return beforeCountdownWarningTime() ? FLASH_COUNTDOWN : FLASH_COUNTDOWN_WARNING;
+		} else if (exitRequested()) {
+			return beforeExitWarningTime() ? FLASH_EXIT.get(requestedExitState)
+					: FLASH_EXIT_WARNING.get(requestedExitState);
+		} else if (stateChanged()) {
+			return FLASH_STATE.get(alarmState);
 		} else {
-			flash(250, false, false, false, false);
-			noNormalFlashNext = false;
+			return FLASH_NORMAL;
 		}
-		flash(250, false, false, false, false);
-		flash(250, false, false, false, false);
-		flash(0, false, false, false, false);
 	}
 
 	private void cancelExit() {
-		requestedExitTime = null;
+		exitWarningTimeout = cancel(exitWarningTimeout);
+		exitTimeout = cancel(exitTimeout);
 		requestedExitState = null;
 		requestedCode = null;
+		exitWarningTime = 0L;
+		exitTime = 0L;
 	}
 
-	private void setLedForState(AlarmState state) {
-		if (!keyPressed()) {
-			ledService.setLeds(state.equals(ARMED_AWAY), state.equals(ARMED_NIGHT), state.equals(ARMED_HOME),
-					state.equals(DISARMED));
-		}
+	private void publishState() {
+		// The feed drops this if nothing it shows has changed.
+		stateFeedService.publish(new KeypadState(getStateName(alarmState), changedTime,
+				exitRequested() ? getStateName(requestedExitState) : null, exitWarningTime, exitTime,
+				alarmState.equals(COUNTDOWN) ? countdownWarningTime : 0L));
 	}
 
-	@Override
-	public void sleep(int milliseconds) {
-		if (milliseconds > 0) {
-			try {
-				Thread.sleep(milliseconds);
-			} catch (InterruptedException ex) {
-			}
+	private void beep(BuzzerPattern sound, Keyframe leds) {
+		// Beep while showing the LEDs for the key, then go on to whatever is next.
+		animator.play(Animation.once("beep",
+				leds(sound.getDuration(), leds.isRed(), leds.isAmber(), leds.isGreen(), leds.isBlue()))
+				.withSound(sound));
+	}
+
+	private static Keyframe leds(long duration, boolean red, boolean amber, boolean green, boolean blue) {
+		return new Keyframe(duration, red, amber, green, blue);
+	}
+
+	private static Keyframe state(long duration, AlarmState state) {
+		return new Keyframe(duration, state.equals(ARMED_AWAY), state.equals(ARMED_NIGHT), state.equals(ARMED_HOME),
+				state.equals(DISARMED));
+	}
+
+	private static BuzzerPattern slowBeeps(String name, int priority) {
+		// A beep at the start of each second, in time with a one second animation.
+		return BuzzerPattern.loop(name, priority, new Tone(BEEP_FREQUENCY, 250L), Tone.rest(750L));
+	}
+
+	private static BuzzerPattern fastBeeps(String name, int priority) {
+		return BuzzerPattern.loop(name, priority, new Tone(BEEP_FREQUENCY, 250L), Tone.rest(250L));
+	}
+
+	private static Keyframe[] getCodeLengthKeyframes() {
+		// One LED per digit, going round again after four.
+		Keyframe[] keyframes = new Keyframe[MAX_CODE_LENGTH + 1];
+		for (int length = 0; length <= MAX_CODE_LENGTH; length++) {
+			keyframes[length] = leds(0L, length >= 1 ^ length >= 5, length >= 2 ^ length >= 6,
+					length >= 3 ^ length >= 7, length >= 4 ^ length >= 8);
 		}
+		return keyframes;
 	}
 
-	private void beep(int milliseconds) {
-		buzzerService.setBuzzer(true);
-		sleep(milliseconds);
-		buzzerService.setBuzzer(false);
+	private static Animation[] getCodeLengthAnimations() {
+		Animation[] animations = new Animation[MAX_CODE_LENGTH + 1];
+		for (int length = 0; length <= MAX_CODE_LENGTH; length++) {
+			animations[length] = Animation.once("code", CODE_LENGTH_KEYFRAMES[length]);
+		}
+		return animations;
 	}
 
-	private void flash(int milliseconds, boolean red, boolean amber, boolean green, boolean blue) {
-		if (!keyPressed() && !commandRequested()) {
-			ledService.setLeds(red, amber, green, blue);
-			sleep(milliseconds);
+	private static Map<AlarmState, Animation> getStateAnimations(String name, BuzzerPattern sound) {
+		Map<AlarmState, Animation> animations = new EnumMap<>(AlarmState.class);
+		for (AlarmState state : AlarmState.values()) {
+			Animation animation = Animation.loop(name, state(250L, state), leds(250L, false, false, false, false),
+					state(250L, state), leds(250L, false, false, false, false));
+			animations.put(state, sound != null ? animation.withSound(sound) : animation);
 		}
+		return animations;
 	}
 
 	private boolean stateChanged() {
-		return lastStateChangeTime != null
-				&& new Date().getTime() - lastStateChangeTime.getTime() < STATE_CHANGE_TIMEOUT;
+		return isPending(stateChangeTimeout);
 	}
 
 	private boolean keyPressed() {
-		return lastKeyPressTime != null && new Date().getTime() - lastKeyPressTime.getTime() < KEY_PRESS_TIMEOUT;
+		return isPending(keyPressTimeout);
 	}
 
 	private boolean commandRequested() {
-		return lastCommandTime != null && new Date().getTime() - lastCommandTime.getTime() < COMMAND_TIMEOUT;
+		return isPending(commandTimeout);
 	}
 
 	private boolean exitRequested() {
-		return requestedExitTime != null && requestedExitState != null;
+		return requestedExitState != null;
 	}
 
 	private boolean beforeExitWarningTime() {
-		return requestedExitTime != null && new Date().getTime() - requestedExitTime.getTime() < EXIT_WARNING_TIMEOUT;
-	}
-
-	private boolean beforeExitTime() {
-		return requestedExitTime != null && new Date().getTime() - requestedExitTime.getTime() < EXIT_TIMEOUT;
+		return isPending(exitWarningTimeout);
 	}
 
 	private boolean beforeCountdownWarningTime() {
-		return lastStateChangeTime != null
-				&& new Date().getTime() - lastStateChangeTime.getTime() < COUNTDOWN_WARNING_TIMEOUT;
+		return isPending(countdownWarningTimeout);
 	}
 }
@@ -1,44 +1,134 @@
 package uk.me.ruthmills.alarmkeypad.service.impl;
 
-import static com.pi4j.io.gpio.PinState.LOW;
 import static com.pi4j.io.gpio.RaspiPin.GPIO_03;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
-import com.pi4j.io.gpio.GpioController;
-import com.pi4j.io.gpio.GpioFactory;
-import com.pi4j.io.gpio.GpioPinDigitalOutput;
-
+import uk.me.ruthmills.alarmkeypad.hardware.Board;
+import uk.me.ruthmills.alarmkeypad.hardware.ToneOutput;
+import uk.me.ruthmills.alarmkeypad.model.BuzzerPattern;
+import uk.me.ruthmills.alarmkeypad.model.Tone;
 import uk.me.ruthmills.alarmkeypad.service.BuzzerService;
 
+/**
+ * Plays buzzer patterns on a thread of its own, so callers never wait for a
+ * tone to finish.
+ *
+ * Each tone is scheduled for a fixed time after the pattern started, so a late
+ * timer doesn't put later tones out. A new pattern cuts short the one playing,
+ * unless that one has a higher priority, in which case the new one is dropped.
+ *
+ * @author ruth
+ */
 @Service
 public class BuzzerServiceImpl implements BuzzerService {
 
-	private volatile GpioController gpio;
-	private volatile GpioPinDigitalOutput buzzer;
+	@Autowired
+	private Board board;
+
+	@Value("${buzzer.passive:false}")
+	private boolean passive;
+
+	private volatile ToneOutput buzzer;
+	private ScheduledExecutorService executor;
+
+	// Only touched by the player thread.
+	private BuzzerPattern pattern;
+	private int index;
+	private int played;
+	private long nextTime;
+	private ScheduledFuture<?> future;
+
+	private final Logger logger = LoggerFactory.getLogger(BuzzerServiceImpl.class);
 
 	@PostConstruct
 	public void initialise() {
-		gpio = GpioFactory.getInstance();
-
-		buzzer = gpio.provisionDigitalOutputPin(GPIO_03, "Buzzer", LOW);
-		buzzer.setShutdownOptions(true, LOW);
+		buzzer = board.provisionToneOutput(GPIO_03, "Buzzer", passive);
+		executor = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("buzzer-player-"));
 	}
 
 	@PreDestroy
 	public void shutdown() {
-		gpio.shutdown();
+		executor.execute(this::finish);
+		executor.shutdown();
+	}
+
+	@Override
+	public void play(BuzzerPattern pattern) {
+		submit(() -> start(pattern));
 	}
 
 	@Override
-	public void setBuzzer(boolean buzzer) {
-		if (buzzer) {
-			this.buzzer.high();
+	public void stop(BuzzerPattern pattern) {
+		submit(() -> {
+			if (this.pattern == pattern) {
+				finish();
+			}
+		});
+	}
+
+	private void submit(Runnable task) {
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException ex) {
+			// Shutting down.
+		}
+	}
+
+	private void start(BuzzerPattern pattern) {
+		if (this.pattern != null && this.pattern.getPriority() > pattern.getPriority()) {
+			logger.debug("Buzzer pattern " + pattern + " dropped for " + this.pattern);
+			return;
+		}
+		cancel();
+		this.pattern = pattern;
+		index = 0;
+		played = 0;
+		nextTime = System.nanoTime();
+		next();
+	}
+
+	private void next() {
+		Tone tone = pattern.getTone(index);
+		buzzer.setFrequency(tone.getFrequency());
+		nextTime += TimeUnit.MILLISECONDS.toNanos(tone.getDuration());
+		if (++index == pattern.getToneCount()) {
+			index = 0;
+			played++;
+		}
+		long delay = nextTime - System.nanoTime();
+		if (pattern.isLoop() || played < pattern.getRepeats()) {
+			future = executor.schedule(this::next, delay, TimeUnit.NANOSECONDS);
 		} else {
-			this.buzzer.low();
+			future = executor.schedule(this::finish, delay, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private void finish() {
+		cancel();
+		pattern = null;
+		buzzer.setFrequency(0);
+	}
+
+	private void cancel() {
+		// Only ever called on the player thread, so the tone can't be part way through.
+		if (future != null) {
+			future.cancel(false);
+			future = null;
 		}
 	}
 }
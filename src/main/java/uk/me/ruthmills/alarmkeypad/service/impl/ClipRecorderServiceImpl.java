@@ -0,0 +1,240 @@
+package uk.me.ruthmills.alarmkeypad.service.impl;
+
+import static uk.me.ruthmills.alarmkeypad.model.AlarmState.COUNTDOWN;
+import static uk.me.ruthmills.alarmkeypad.model.AlarmState.TRIGGERED;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import uk.me.ruthmills.alarmkeypad.model.AlarmState;
+import uk.me.ruthmills.alarmkeypad.model.AlarmStateChangedEvent;
+import uk.me.ruthmills.alarmkeypad.service.ClipRecorderService;
+import uk.me.ruthmills.alarmkeypad.service.MjpegStreamService;
+import uk.me.ruthmills.alarmkeypad.stream.ClipWriter;
+import uk.me.ruthmills.alarmkeypad.stream.Frame;
+import uk.me.ruthmills.alarmkeypad.stream.FrameQueue;
+
+/**
+ * Records a clip from each camera to disk when the alarm goes to countdown or
+ * triggered. The clip starts with the frames held in memory from before the event, and
+ * carries on for a while afterwards. Another event while recording extends
+ * the clip.
+ * 
+ * @author ruth
+ */
+@Service
+public class ClipRecorderServiceImpl implements ClipRecorderService {
+
+	private static final int QUEUE_SIZE = 64;
+	private static final DateTimeFormatter FILE_NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+	private static final long CLOSE_TIMEOUT = 2000L;
+
+	@Autowired
+	private MjpegStreamService mjpegStreamService;
+
+	@Value("${clip.directory:clips}")
+	private String directory;
+
+	@Value("${clip.preTriggerSeconds:10}")
+	private int preTriggerSeconds;
+
+	@Value("${clip.postTriggerSeconds:30}")
+	private int postTriggerSeconds;
+
+	private ScheduledThreadPoolExecutor executor;
+
+	// Only touched by the recorder thread.
+	private final Map<String, Recording> recordings = new HashMap<>();
+	private long stopTime;
+
+	private volatile boolean recording;
+
+	private final Logger logger = LoggerFactory.getLogger(ClipRecorderServiceImpl.class);
+
+	@PostConstruct
+	public void initialise() {
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("clip-recorder-");
+		threadFactory.setDaemon(true);
+		executor = new ScheduledThreadPoolExecutor(1, threadFactory);
+		// Checks for the end of a clip are dropped at shutdown, rather than waited for.
+		executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		// Close any clips on the recorder thread, and wait for them to be closed.
+		Future<?> stopped = executor.submit(this::stopRecording);
+		executor.shutdown();
+		try {
+			stopped.get(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException | TimeoutException ex) {
+			logger.error("Failed to close clips", ex);
+		} catch (InterruptedException ex) {
+			// Shutting down anyway.
+		}
+		executor.shutdownNow();
+	}
+
+	@EventListener
+	public void alarmStateChanged(AlarmStateChangedEvent event) {
+		if (event.getAlarmState().equals(COUNTDOWN) || event.getAlarmState().equals(TRIGGERED)) {
+			record(event.getAlarmState());
+		}
+	}
+
+	@Override
+	public void record(AlarmState alarmState) {
+		executor.execute(() -> startRecording(alarmState));
+	}
+
+	@Override
+	public boolean isRecording() {
+		return recording;
+	}
+
+	private void startRecording(AlarmState alarmState) {
+		stopTime = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(postTriggerSeconds);
+		executor.schedule(this::checkStop, postTriggerSeconds, TimeUnit.SECONDS);
+		if (!recordings.isEmpty()) {
+			logger.info("Clip recording extended for " + alarmState);
+			return;
+		}
+
+		String time = LocalDateTime.now().format(FILE_NAME_FORMAT);
+		for (String camera : mjpegStreamService.getCameraNames()) {
+			String name = time + "-" + camera + "-" + alarmState.name().toLowerCase();
+			try {
+				Path path = Paths.get(directory);
+				Files.createDirectories(path);
+				Recording clip = new Recording(camera,
+						new ClipWriter(path.resolve(name + ".mjpeg"), path.resolve(name + ".idx")));
+				recordings.put(camera, clip);
+				clip.start();
+				logger.info("Clip recording started: " + name);
+			} catch (IOException ex) {
+				logger.error("Failed to start clip recording for camera " + camera, ex);
+			}
+		}
+		recording = !recordings.isEmpty();
+	}
+
+	private void checkStop() {
+		if (!recordings.isEmpty() && System.currentTimeMillis() >= stopTime) {
+			stopRecording();
+		}
+	}
+
+	private void stopRecording() {
+		for (Recording clip : recordings.values()) {
+			clip.stop();
+		}
+		recordings.clear();
+		recording = false;
+	}
+
+	/**
+	 * The clip being recorded for one camera.
+	 */
+	private class Recording {
+
+		private final String camera;
+		private ClipWriter writer;
+		private FrameQueue queue;
+		private long lastTimestamp;
+
+		private Recording(String camera, ClipWriter writer) {
+			this.camera = camera;
+			this.writer = writer;
+		}
+
+		private void start() {
+			// Subscribe before taking the recent frames, so that nothing is missed.
+			queue = mjpegStreamService.subscribe(camera, QUEUE_SIZE, this::onFrame);
+			List<Frame> frames = mjpegStreamService.getRecentFrames(camera,
+					System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(preTriggerSeconds));
+			try {
+				for (Frame frame : frames) {
+					write(frame);
+				}
+			} finally {
+				frames.forEach(Frame::release);
+			}
+			writeFrames();
+		}
+
+		private void onFrame() {
+			try {
+				executor.execute(this::writeFrames);
+			} catch (RejectedExecutionException ex) {
+				// Shutting down.
+			}
+		}
+
+		private void writeFrames() {
+			if (writer == null) {
+				return;
+			}
+			Frame frame;
+			while ((frame = queue.poll()) != null) {
+				try {
+					write(frame);
+				} finally {
+					frame.release();
+				}
+			}
+			checkStop();
+		}
+
+		private void write(Frame frame) {
+			if (writer != null && frame.getTimestamp() > lastTimestamp) {
+				try {
+					writer.write(frame);
+					lastTimestamp = frame.getTimestamp();
+				} catch (IOException ex) {
+					logger.error("Failed to write clip for camera " + camera, ex);
+					stop();
+				}
+			}
+		}
+
+		private void stop() {
+			if (queue != null) {
+				mjpegStreamService.unsubscribe(camera, queue);
+				queue = null;
+			}
+			if (writer != null) {
+				try {
+					writer.close();
+					logger.info("Clip recording stopped for camera " + camera);
+				} catch (IOException ex) {
+					logger.error("Failed to close clip for camera " + camera, ex);
+				}
+				writer = null;
+			}
+		}
+	}
+}
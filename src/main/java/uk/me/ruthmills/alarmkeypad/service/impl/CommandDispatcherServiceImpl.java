@@ -0,0 +1,471 @@
+package uk.me.ruthmills.alarmkeypad.service.impl;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import uk.me.ruthmills.alarmkeypad.command.CircuitBreaker;
+import uk.me.ruthmills.alarmkeypad.command.CommandJournal;
+import uk.me.ruthmills.alarmkeypad.command.ConnectionWarmer;
+import uk.me.ruthmills.alarmkeypad.model.AlarmStateChangedEvent;
+import uk.me.ruthmills.alarmkeypad.model.Command;
+import uk.me.ruthmills.alarmkeypad.model.CommandResultEvent;
+import uk.me.ruthmills.alarmkeypad.service.CommandDispatcherService;
+import uk.me.ruthmills.alarmkeypad.service.EventJournalService;
+
+/**
+ * Sends commands to the alarm endpoint from a single dispatcher thread, so the
+ * keypad never waits on the network and commands are sent in the order they
+ * were dispatched.
+ *
+ * A command that fails is retried with jittered exponential backoff, until it
+ * has been tried command.maxAttempts times or is command.maxAgeSeconds old. A
+ * circuit breaker fails commands straight away while the endpoint is down. The
+ * outcome of each command is published as a {@link CommandResultEvent}.
+ *
+ * Commands that change the alarm state are written to a journal by a
+ * background thread, a batch at a time, while they are sent, so the disk never
+ * holds a command up. If the endpoint is down they are kept, in
+ * order, and sent when it comes back, even after a restart, as long as they
+ * are no more than command.journal.maxReplayAgeSeconds old, which defaults to
+ * command.maxAgeSeconds. A command held back like this is dropped once the
+ * alarm pushes a new state or a later command is dispatched, as either makes
+ * it out of date.
+ *
+ * Connections to the endpoint are pooled and kept alive, and one is kept open
+ * ready for the next command, so sending a command costs a round trip rather
+ * than a connection setup.
+ *
+ * @author ruth
+ */
+@Service
+public class CommandDispatcherServiceImpl implements CommandDispatcherService {
+
+	private static final int MAX_CONNECTIONS = 2;
+	private static final int CONNECT_TIMEOUT = 3000;
+	private static final int SOCKET_TIMEOUT = 9000;
+	private static final int VALIDATE_AFTER_INACTIVITY = 2000;
+	private static final long MIN_BACKOFF = 250L;
+	private static final long MAX_BACKOFF = 4000L;
+	private static final long JOURNAL_COMPACT_SIZE = 64 * 1024;
+	private static final long JOURNAL_CLOSE_TIMEOUT = 1000L;
+
+	@Autowired
+	private ApplicationEventPublisher eventPublisher;
+
+	@Autowired
+	private EventJournalService eventJournalService;
+
+	@Value("${endpoint}")
+	private String endpoint;
+
+	@Value("${token}")
+	private String token;
+
+	@Value("${command.maxAttempts:5}")
+	private int maxAttempts;
+
+	@Value("${command.maxAgeSeconds:30}")
+	private int maxAgeSeconds;
+
+	@Value("${command.circuitBreaker.failureThreshold:3}")
+	private int failureThreshold;
+
+	@Value("${command.circuitBreaker.openSeconds:30}")
+	private int openSeconds;
+
+	@Value("${command.connection.maxIdleSeconds:50}")
+	private int maxIdleSeconds;
+
+	@Value("${command.connection.warmSeconds:10}")
+	private int warmSeconds;
+
+	@Value("${command.journal.file:journal/commands.journal}")
+	private String journalFile;
+
+	@Value("${command.journal.maxReplayAgeSeconds:${command.maxAgeSeconds:30}}")
+	private int maxReplayAgeSeconds;
+
+	private final AtomicLong sequence = new AtomicLong();
+	private final BlockingQueue<JournalEntry> journalQueue = new LinkedBlockingQueue<>();
+	private final Map<Long, Command> pending = new ConcurrentSkipListMap<>();
+	private CommandJournal journal;
+	private Thread journalThread;
+	private ExecutorService executor;
+	private ScheduledExecutorService warmer;
+	private PoolingHttpClientConnectionManager connectionManager;
+	private CircuitBreaker circuitBreaker;
+	private RestTemplate restTemplate;
+	private volatile long statePushedTime;
+
+	// Only touched by the dispatcher thread.
+	private final Set<Long> reported = new HashSet<>();
+	private int attempts;
+
+	private final Logger logger = LoggerFactory.getLogger(CommandDispatcherServiceImpl.class);
+
+	@PostConstruct
+	public void initialise() {
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("command-dispatcher-");
+		threadFactory.setDaemon(true);
+		executor = Executors.newSingleThreadExecutor(threadFactory);
+		circuitBreaker = new CircuitBreaker(failureThreshold, TimeUnit.SECONDS.toNanos(openSeconds));
+		restTemplate = new RestTemplate(getClientHttpRequestFactory());
+		recoverJournal();
+		journalThread = new Thread(this::runJournal, "command-journal");
+		journalThread.setDaemon(true);
+		journalThread.start();
+
+		CustomizableThreadFactory warmerThreadFactory = new CustomizableThreadFactory("command-warmer-");
+		warmerThreadFactory.setDaemon(true);
+		warmer = Executors.newSingleThreadScheduledExecutor(warmerThreadFactory);
+		warmer.scheduleWithFixedDelay(new ConnectionWarmer(connectionManager, endpoint, CONNECT_TIMEOUT,
+				TimeUnit.SECONDS.toMillis(maxIdleSeconds)), 0L, warmSeconds, TimeUnit.SECONDS);
+		// Try any commands held back while the endpoint was down.
+		warmer.scheduleWithFixedDelay(this::replay, warmSeconds, warmSeconds, TimeUnit.SECONDS);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		warmer.shutdownNow();
+		executor.shutdownNow();
+		try {
+			// Let a command that is being sent finish before closing its connection.
+			executor.awaitTermination(JOURNAL_CLOSE_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			// Shutting down anyway.
+		}
+		connectionManager.shutdown();
+		journalThread.interrupt();
+		try {
+			journalThread.join(JOURNAL_CLOSE_TIMEOUT);
+		} catch (InterruptedException ex) {
+			// Shutting down anyway.
+		}
+	}
+
+	private void recoverJournal() {
+		if (journalFile.isEmpty()) {
+			return;
+		}
+		try {
+			journal = new CommandJournal(Paths.get(journalFile), JOURNAL_COMPACT_SIZE);
+			for (Command command : journal.recover()) {
+				// Nobody is waiting on these, so only say if they get through.
+				pending.put(command.getSequence(), command);
+				reported.add(command.getSequence());
+			}
+			sequence.set(journal.getLastSequence());
+			if (!pending.isEmpty()) {
+				logger.info("Commands to replay from journal: " + pending.size());
+			}
+		} catch (IOException ex) {
+			logger.error("Failed to open command journal, commands will not survive a restart", ex);
+			journal = null;
+		}
+	}
+
+	@EventListener
+	public void alarmStateChanged(AlarmStateChangedEvent event) {
+		statePushedTime = System.currentTimeMillis();
+	}
+
+	private void replay() {
+		if (!pending.isEmpty()) {
+			scheduleSend();
+		}
+	}
+
+	private ClientHttpRequestFactory getClientHttpRequestFactory() {
+		connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(MAX_CONNECTIONS);
+		connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS);
+		// Check a connection is still open before reusing it, if it has been idle a while.
+		connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+		RequestConfig config = RequestConfig.custom().setConnectTimeout(CONNECT_TIMEOUT)
+				.setConnectionRequestTimeout(CONNECT_TIMEOUT).setSocketTimeout(SOCKET_TIMEOUT).build();
+		CloseableHttpClient client = HttpClientBuilder.create().setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(config).setKeepAliveStrategy(this::getKeepAliveDuration).build();
+		return new HttpComponentsClientHttpRequestFactory(client);
+	}
+
+	private long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+		// Go by the server's Keep-Alive header, but never hold a connection longer than the warmer would.
+		long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+		long maxIdleTime = TimeUnit.SECONDS.toMillis(maxIdleSeconds);
+		return duration > 0L ? Math.min(duration, maxIdleTime) : maxIdleTime;
+	}
+
+	@Override
+	public synchronized Command dispatch(String state, String code) {
+		// Pending commands are sent in sequence order, so they stay in order.
+		Command command = new Command(sequence.incrementAndGet(), state, code, System.currentTimeMillis());
+		pending.put(command.getSequence(), command);
+		if (journal != null && isReplayable(command)) {
+			journalQueue.add(new JournalEntry(command, 0L));
+		}
+		scheduleSend();
+		return command;
+	}
+
+	private void runJournal() {
+		List<JournalEntry> batch = new ArrayList<>();
+		try {
+			while (true) {
+				batch.add(journalQueue.take());
+				journalQueue.drainTo(batch);
+				writeJournal(batch);
+				batch.clear();
+			}
+		} catch (InterruptedException ex) {
+			// Shutting down, but write out whatever is still queued first.
+			batch.clear();
+			journalQueue.drainTo(batch);
+			if (!batch.isEmpty()) {
+				writeJournal(batch);
+			}
+		} finally {
+			if (journal != null) {
+				try {
+					journal.close();
+				} catch (IOException ex) {
+					logger.error("Failed to close command journal", ex);
+				}
+			}
+		}
+	}
+
+	private void writeJournal(List<JournalEntry> batch) {
+		Set<Long> completed = new HashSet<>();
+		for (JournalEntry entry : batch) {
+			if (entry.command == null) {
+				completed.add(entry.completed);
+			}
+		}
+		try {
+			for (JournalEntry entry : batch) {
+				if (entry.command == null) {
+					journal.complete(entry.completed);
+				} else if (!completed.contains(entry.command.getSequence())) {
+					// Only journal a command if it wasn't sent before it got here.
+					journal.append(entry.command);
+				}
+			}
+			// One write for the whole batch.
+			journal.commit();
+		} catch (IOException ex) {
+			logger.error("Failed to write command journal", ex);
+		}
+	}
+
+	private void scheduleSend() {
+		try {
+			executor.execute(this::sendPending);
+		} catch (RejectedExecutionException ex) {
+			// Shutting down.
+		}
+	}
+
+	private void sendPending() {
+		long latest = getLatestReplayable();
+		for (Command command : pending.values()) {
+			boolean replayable = isReplayable(command);
+			if (replayable && isObsolete(command, latest)) {
+				finish(command);
+				reported.remove(command.getSequence());
+				continue;
+			}
+			Outcome outcome = send(command);
+			if (outcome == Outcome.UNAVAILABLE && replayable) {
+				// Keep it, and everything after it, for when the endpoint comes back.
+				if (reported.add(command.getSequence())) {
+					publishResult(command, false, attempts);
+				}
+				return;
+			}
+			finish(command);
+			if (outcome == Outcome.SENT || !reported.contains(command.getSequence())) {
+				publishResult(command, outcome == Outcome.SENT, attempts);
+			}
+			reported.remove(command.getSequence());
+		}
+	}
+
+	private long getLatestReplayable() {
+		long latest = 0L;
+		for (Command command : pending.values()) {
+			if (isReplayable(command)) {
+				latest = command.getSequence();
+			}
+		}
+		return latest;
+	}
+
+	private boolean isObsolete(Command command, long latest) {
+		long age = System.currentTimeMillis() - command.getCreatedTime();
+		if (age > TimeUnit.SECONDS.toMillis(maxReplayAgeSeconds)) {
+			logger.warn("Dropping command " + command.getState() + " dispatched " + age + " ms ago");
+			return true;
+		}
+		if (!reported.contains(command.getSequence())) {
+			// Not held back yet, so still wanted.
+			return false;
+		}
+		if (command.getCreatedTime() < statePushedTime) {
+			logger.warn("Dropping command " + command.getState() + ", the alarm state has changed since");
+			return true;
+		}
+		if (command.getSequence() < latest) {
+			logger.warn("Dropping command " + command.getState() + ", superseded by a later command");
+			return true;
+		}
+		return false;
+	}
+
+	private void finish(Command command) {
+		pending.remove(command.getSequence());
+		if (journal != null && isReplayable(command)) {
+			journalQueue.add(new JournalEntry(null, command.getSequence()));
+		}
+	}
+
+	private static boolean isReplayable(Command command) {
+		// Checking a code or saying hello is only any use at the time.
+		return !command.getState().equals("validate") && !command.getState().equals("initialise");
+	}
+
+	private Outcome send(Command command) {
+		long backoff = MIN_BACKOFF;
+		attempts = 0;
+		while (true) {
+			if (!circuitBreaker.allowRequest()) {
+				logger.error("Alarm endpoint unavailable, command not sent: " + command.getState());
+				return Outcome.UNAVAILABLE;
+			}
+			attempts++;
+			eventJournalService.commandSent(command.getState(), command.getSequence());
+			try {
+				sendCommand(command.getState(), command.getCode());
+				circuitBreaker.recordSuccess();
+				return Outcome.SENT;
+			} catch (HttpClientErrorException ex) {
+				// The endpoint is up, but won't take the command.
+				if (ex.getStatusCode() != HttpStatus.TOO_MANY_REQUESTS) {
+					circuitBreaker.recordSuccess();
+					logger.error("Command rejected: " + command.getState(), ex);
+					return Outcome.REJECTED;
+				}
+				circuitBreaker.recordFailure();
+			} catch (RestClientException ex) {
+				circuitBreaker.recordFailure();
+				logger.warn("Failed to send command " + command.getState() + ": " + ex);
+			}
+
+			long age = System.currentTimeMillis() - command.getCreatedTime();
+			if (attempts >= maxAttempts || age + backoff > TimeUnit.SECONDS.toMillis(maxAgeSeconds)) {
+				logger.error("Giving up on command after " + attempts + " attempts: " + command.getState());
+				return Outcome.UNAVAILABLE;
+			}
+			try {
+				Thread.sleep(ThreadLocalRandom.current().nextLong(backoff / 2L, backoff + 1L));
+			} catch (InterruptedException ex) {
+				// Shutting down.
+				return Outcome.UNAVAILABLE;
+			}
+			backoff = Math.min(MAX_BACKOFF, backoff * 2L);
+		}
+	}
+
+	private void publishResult(Command command, boolean success, int attempts) {
+		try {
+			eventPublisher.publishEvent(new CommandResultEvent(command, success, attempts));
+		} catch (Exception ex) {
+			logger.error("Exception handling command result", ex);
+		}
+	}
+
+	private void sendCommand(String state, String code) {
+		logger.info("Sending command to update state to: " + state);
+
+		StringBuilder requestJson = new StringBuilder();
+		requestJson.append("{\"state\": \"");
+		requestJson.append(state);
+		if (code.length() > 0) {
+			requestJson.append(" ");
+		}
+		requestJson.append(code);
+		requestJson.append("\"}");
+
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		headers.set("Authorization", "Bearer " + token);
+
+		logger.info("About to send POST to " + endpoint);
+		restTemplate.postForEntity(endpoint, new HttpEntity<String>(requestJson.toString(), headers), String.class);
+
+		logger.info("About to send DELETE to " + endpoint);
+		restTemplate.exchange(endpoint, HttpMethod.DELETE, new HttpEntity<String>("", headers), String.class);
+	}
+
+	private enum Outcome {
+		SENT, REJECTED, UNAVAILABLE
+	}
+
+	/**
+	 * A command to append to the journal, or the sequence number of one to mark
+	 * as complete.
+	 */
+	private static class JournalEntry {
+
+		private final Command command;
+		private final long completed;
+
+		private JournalEntry(Command command, long completed) {
+			this.command = command;
+			this.completed = completed;
+		}
+	}
+}
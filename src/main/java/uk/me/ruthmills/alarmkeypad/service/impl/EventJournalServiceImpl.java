@@ -0,0 +1,96 @@
+package uk.me.ruthmills.alarmkeypad.service.impl;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import uk.me.ruthmills.alarmkeypad.events.EventJournal;
+import uk.me.ruthmills.alarmkeypad.events.EventType;
+import uk.me.ruthmills.alarmkeypad.model.CommandResultEvent;
+import uk.me.ruthmills.alarmkeypad.model.JournalEvent;
+import uk.me.ruthmills.alarmkeypad.service.EventJournalService;
+
+/**
+ * Records what happens at the keypad in the event journal. If the journal
+ * can't be opened, events are not recorded, and the keypad carries on.
+ *
+ * @author ruth
+ */
+@Service
+public class EventJournalServiceImpl implements EventJournalService {
+
+	@Value("${events.journal.file:journal/events.journal}")
+	private String file;
+
+	@Value("${events.journal.capacity:65536}")
+	private int capacity;
+
+	private volatile EventJournal journal;
+
+	private final Logger logger = LoggerFactory.getLogger(EventJournalServiceImpl.class);
+
+	@PostConstruct
+	public void initialise() {
+		try {
+			journal = new EventJournal(Paths.get(file), capacity);
+		} catch (IOException | RuntimeException ex) {
+			logger.error("Failed to open event journal, events will not be recorded", ex);
+		}
+	}
+
+	@Override
+	public void keyPressed(char key) {
+		record(EventType.KEY, null, key, 0L, true);
+	}
+
+	@Override
+	public void commandSent(String state, long sequence) {
+		record(EventType.COMMAND_SENT, state, '\0', sequence, true);
+	}
+
+	@EventListener
+	public void commandResult(CommandResultEvent event) {
+		record(EventType.COMMAND_RESULT, event.getCommand().getState(), '\0', event.getCommand().getSequence(),
+				event.isSuccess());
+	}
+
+	@Override
+	public void statePushed(String state) {
+		record(EventType.STATE_PUSH, state, '\0', 0L, true);
+	}
+
+	@Override
+	public void graceStarted(String state) {
+		record(EventType.GRACE_START, state, '\0', 0L, true);
+	}
+
+	@Override
+	public void graceExpired(String state) {
+		record(EventType.GRACE_EXPIRY, state, '\0', 0L, true);
+	}
+
+	@Override
+	public List<JournalEvent> getEvents(long from, long to, long after, int limit) {
+		EventJournal journal = this.journal;
+		if (journal == null) {
+			return Collections.emptyList();
+		}
+		return journal.read(from, to, after, limit);
+	}
+
+	private void record(EventType type, String state, char key, long sequence, boolean success) {
+		EventJournal journal = this.journal;
+		if (journal != null) {
+			journal.record(type, state, key, sequence, success);
+		}
+	}
+}
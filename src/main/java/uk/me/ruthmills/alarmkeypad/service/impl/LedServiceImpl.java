@@ -1,77 +1,49 @@
 package uk.me.ruthmills.alarmkeypad.service.impl;
 
-import static com.pi4j.io.gpio.PinState.HIGH;
 import static com.pi4j.io.gpio.RaspiPin.GPIO_07;
 import static com.pi4j.io.gpio.RaspiPin.GPIO_08;
 import static com.pi4j.io.gpio.RaspiPin.GPIO_09;
 import static com.pi4j.io.gpio.RaspiPin.GPIO_10;
 
 import javax.annotation.PostConstruct;
-import javax.annotation.PreDestroy;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import com.pi4j.io.gpio.GpioController;
-import com.pi4j.io.gpio.GpioFactory;
-import com.pi4j.io.gpio.GpioPinDigitalOutput;
+import com.pi4j.io.gpio.Pin;
 
+import uk.me.ruthmills.alarmkeypad.hardware.Board;
+import uk.me.ruthmills.alarmkeypad.hardware.OutputBank;
 import uk.me.ruthmills.alarmkeypad.service.LedService;
 
+/**
+ * Drives the LEDs, which are lit by taking their pin low. All four are set in
+ * one write, and not at all if none of them has changed.
+ *
+ * @author ruth
+ */
 @Service
 public class LedServiceImpl implements LedService {
 
-	private volatile GpioController gpio;
-	private volatile GpioPinDigitalOutput redLed;
-	private volatile GpioPinDigitalOutput amberLed;
-	private volatile GpioPinDigitalOutput greenLed;
-	private volatile GpioPinDigitalOutput blueLed;
+	private static final int RED = 1;
+	private static final int AMBER = 2;
+	private static final int GREEN = 4;
+	private static final int BLUE = 8;
 
-	@PostConstruct
-	public void initialise() {
-		gpio = GpioFactory.getInstance();
-
-		redLed = gpio.provisionDigitalOutputPin(GPIO_08, "Red LED", HIGH);
-		redLed.setShutdownOptions(true, HIGH);
+	@Autowired
+	private Board board;
 
-		amberLed = gpio.provisionDigitalOutputPin(GPIO_09, "Amber LED", HIGH);
-		amberLed.setShutdownOptions(true, HIGH);
-
-		greenLed = gpio.provisionDigitalOutputPin(GPIO_07, "Green LED", HIGH);
-		greenLed.setShutdownOptions(true, HIGH);
-
-		blueLed = gpio.provisionDigitalOutputPin(GPIO_10, "Blue LED", HIGH);
-		blueLed.setShutdownOptions(true, HIGH);
-	}
+	private volatile OutputBank leds;
 
-	@PreDestroy
-	public void shutdown() {
-		gpio.shutdown();
+	@PostConstruct
+	public void initialise() {
+		leds = board.provisionOutputBank(new Pin[] { GPIO_08, GPIO_09, GPIO_07, GPIO_10 },
+				new String[] { "Red LED", "Amber LED", "Green LED", "Blue LED" }, true, true);
 	}
 
 	@Override
 	public void setLeds(boolean red, boolean amber, boolean green, boolean blue) {
-		if (red) {
-			redLed.low();
-		} else {
-			redLed.high();
-		}
-
-		if (amber) {
-			amberLed.low();
-		} else {
-			amberLed.high();
-		}
-
-		if (green) {
-			greenLed.low();
-		} else {
-			greenLed.high();
-		}
-
-		if (blue) {
-			blueLed.low();
-		} else {
-			blueLed.high();
-		}
+		int lit = (red ? RED : 0) | (amber ? AMBER : 0) | (green ? GREEN : 0) | (blue ? BLUE : 0);
+		leds.setLevels(~lit & (RED | AMBER | GREEN | BLUE));
 	}
 }
@@ -0,0 +1,224 @@
+package uk.me.ruthmills.alarmkeypad.service.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.AsyncContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import uk.me.ruthmills.alarmkeypad.config.CameraProperties;
+import uk.me.ruthmills.alarmkeypad.model.CameraMetrics;
+import uk.me.ruthmills.alarmkeypad.service.AlarmStateService;
+import uk.me.ruthmills.alarmkeypad.service.MjpegStreamService;
+import uk.me.ruthmills.alarmkeypad.stream.CameraStream;
+import uk.me.ruthmills.alarmkeypad.stream.Frame;
+import uk.me.ruthmills.alarmkeypad.stream.FramePool;
+import uk.me.ruthmills.alarmkeypad.stream.FrameQueue;
+import uk.me.ruthmills.alarmkeypad.stream.FrameReplay;
+import uk.me.ruthmills.alarmkeypad.stream.FrameRing;
+import uk.me.ruthmills.alarmkeypad.stream.MjpegViewer;
+
+/**
+ * Reads each camera stream once, with its own upstream reader, and publishes
+ * each frame to every viewer of that camera.
+ * 
+ * The cameras come from {@link CameraProperties}. If none are configured, the
+ * single streamURL property is used as the default camera.
+ * 
+ * The last stream.replaySeconds of each camera are held in memory, for replays
+ * and single frames from the recent past. All the cameras together hold no
+ * more than stream.replayMaxMegabytes: the default of 64MB covers the default
+ * 30 seconds for one camera at 15 fps with frames of about 130KB. A warning is
+ * logged if a camera's share cuts its time short.
+ * 
+ * @author ruth
+ */
+@Service
+public class MjpegStreamServiceImpl implements MjpegStreamService {
+
+	private static final String DEFAULT_CAMERA = "default";
+	private static final int MAX_FPS = 30;
+	private static final long MAX_FRAME_DISTANCE = 1000L;
+
+	@Autowired
+	private AlarmStateService alarmStateService;
+
+	@Autowired
+	private CameraProperties cameraProperties;
+
+	@Value("${streamURL:}")
+	private String streamURL;
+
+	@Value("${stream.viewerQueueSize:2}")
+	private int viewerQueueSize;
+
+	@Value("${clip.preTriggerSeconds:10}")
+	private int preTriggerSeconds;
+
+	@Value("${stream.replaySeconds:30}")
+	private int replaySeconds;
+
+	@Value("${stream.replayMaxMegabytes:64}")
+	private int replayMaxMegabytes;
+
+	@Value("${stream.writerThreads:2}")
+	private int writerThreads;
+
+	@Value("${stream.pool.direct:false}")
+	private boolean directBuffers;
+
+	@Value("${stream.pool.maxFramesPerSize:16}")
+	private int maxFramesPerSize;
+
+	private final Map<String, CameraStream> cameras = new LinkedHashMap<>();
+	private ExecutorService writerExecutor;
+	private ScheduledExecutorService scheduler;
+
+	private static final Logger logger = LoggerFactory.getLogger(MjpegStreamServiceImpl.class);
+
+	@PostConstruct
+	public void initialise() {
+		CustomizableThreadFactory writerThreadFactory = new CustomizableThreadFactory("mjpeg-writer-");
+		writerThreadFactory.setDaemon(true);
+		writerExecutor = Executors.newFixedThreadPool(writerThreads, writerThreadFactory);
+		CustomizableThreadFactory schedulerThreadFactory = new CustomizableThreadFactory("mjpeg-scheduler-");
+		schedulerThreadFactory.setDaemon(true);
+		scheduler = Executors.newSingleThreadScheduledExecutor(schedulerThreadFactory);
+
+		for (CameraProperties.Source source : cameraProperties.getSources()) {
+			addCamera(source.getName(), source.getUrl());
+		}
+		if (cameras.isEmpty() && !streamURL.isEmpty()) {
+			addCamera(DEFAULT_CAMERA, streamURL);
+		}
+		for (CameraStream camera : cameras.values()) {
+			camera.start(scheduler);
+		}
+		logger.info("Cameras: " + cameras.keySet());
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		for (CameraStream camera : cameras.values()) {
+			camera.stop();
+		}
+		scheduler.shutdownNow();
+		writerExecutor.shutdownNow();
+	}
+
+	@Override
+	public List<String> getCameraNames() {
+		return new ArrayList<>(cameras.keySet());
+	}
+
+	@Override
+	public boolean hasCamera(String camera) {
+		return cameras.containsKey(camera);
+	}
+
+	@Override
+	public String getDefaultCamera() {
+		return cameras.isEmpty() ? null : cameras.keySet().iterator().next();
+	}
+
+	@Override
+	public void addViewer(String camera, AsyncContext asyncContext, double maxFps, boolean adaptive)
+			throws IOException {
+		CameraStream cameraStream = getCamera(camera);
+		MjpegViewer viewer = new MjpegViewer(asyncContext, writerExecutor, cameraStream.getBroadcaster(),
+				viewerQueueSize, maxFps, adaptive);
+		cameraStream.addViewer(viewer);
+		viewer.start();
+	}
+
+	@Override
+	public void addReplayViewer(String camera, AsyncContext asyncContext, long from, double speed, double maxFps,
+			boolean adaptive) throws IOException {
+		CameraStream cameraStream = getCamera(camera);
+		FrameReplay replay = new FrameReplay(cameraStream.getRecentFrames(), scheduler, from, speed);
+		MjpegViewer viewer = new MjpegViewer(asyncContext, writerExecutor, replay, viewerQueueSize, maxFps,
+				adaptive);
+		cameraStream.addViewer(viewer);
+		viewer.start();
+	}
+
+	@Override
+	public FrameQueue subscribe(String camera, int capacity, Runnable listener) {
+		return getCamera(camera).getBroadcaster().subscribe(capacity, listener);
+	}
+
+	@Override
+	public void unsubscribe(String camera, FrameQueue queue) {
+		getCamera(camera).getBroadcaster().unsubscribe(queue);
+	}
+
+	@Override
+	public Frame getLatestFrame(String camera) {
+		return getCamera(camera).getBroadcaster().getLatestFrame();
+	}
+
+	@Override
+	public Frame getFrame(String camera, long timestamp) {
+		FrameRing recentFrames = getCamera(camera).getRecentFrames();
+		if (timestamp < recentFrames.getOldestTimestamp() - MAX_FRAME_DISTANCE) {
+			// Long gone.
+			return null;
+		}
+		return recentFrames.getFrameAt(timestamp);
+	}
+
+	@Override
+	public List<Frame> getRecentFrames(String camera, long from) {
+		return getCamera(camera).getRecentFrames().getFrames(from);
+	}
+
+	@Override
+	public List<CameraMetrics> getMetrics() {
+		List<CameraMetrics> metrics = new ArrayList<>();
+		for (CameraStream camera : cameras.values()) {
+			metrics.add(camera.getMetrics());
+		}
+		return metrics;
+	}
+
+	private void addCamera(String name, String url) {
+		if (cameras.containsKey(name)) {
+			throw new IllegalStateException("Camera configured twice: " + name);
+		}
+		// Each camera has its own frame buffers, so one busy camera can't starve the others.
+		FramePool framePool = new FramePool(directBuffers, maxFramesPerSize);
+		int seconds = Math.max(replaySeconds, preTriggerSeconds);
+		// The memory limit is for all the cameras together.
+		FrameRing recentFrames = new FrameRing(name, TimeUnit.SECONDS.toMillis(seconds), seconds * MAX_FPS,
+				replayMaxMegabytes * 1024L * 1024L / getCameraCount());
+		cameras.put(name, new CameraStream(name, url, alarmStateService::getAlarmState, framePool, recentFrames));
+	}
+
+	private int getCameraCount() {
+		int sources = cameraProperties.getSources().size();
+		return sources > 0 ? sources : 1;
+	}
+
+	private CameraStream getCamera(String camera) {
+		CameraStream cameraStream = cameras.get(camera);
+		if (cameraStream == null) {
+			throw new IllegalArgumentException("No such camera: " + camera);
+		}
+		return cameraStream;
+	}
+}
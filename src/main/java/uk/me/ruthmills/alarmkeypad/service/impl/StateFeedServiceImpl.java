@@ -0,0 +1,148 @@
+package uk.me.ruthmills.alarmkeypad.service.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.AsyncContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import uk.me.ruthmills.alarmkeypad.feed.StateSnapshot;
+import uk.me.ruthmills.alarmkeypad.feed.StateSubscriber;
+import uk.me.ruthmills.alarmkeypad.model.KeypadState;
+import uk.me.ruthmills.alarmkeypad.service.StateFeedService;
+
+/**
+ * Keeps the latest keypad state, serialised, and pushes each change to the
+ * subscribers of the state feed as a server-sent event.
+ *
+ * Each change is serialised once, on the feed thread, and the same bytes are
+ * written to every subscriber. A change that leaves the state as it was is
+ * dropped. Every so often each subscriber with nothing waiting is sent a
+ * comment, so that a dead connection is noticed and an idle one isn't closed
+ * by a proxy.
+ *
+ * @author ruth
+ */
+@Service
+public class StateFeedServiceImpl implements StateFeedService {
+
+	private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Value("${state.heartbeatSeconds:20}")
+	private int heartbeatSeconds;
+
+	private ScheduledExecutorService executor;
+	private volatile StateSnapshot snapshot;
+
+	// Only touched by the feed thread.
+	private final Set<StateSubscriber> subscribers = new HashSet<>();
+	private final String startId = Long.toString(System.currentTimeMillis(), 36);
+	private long sequence;
+
+	private final Logger logger = LoggerFactory.getLogger(StateFeedServiceImpl.class);
+
+	@PostConstruct
+	public void initialise() {
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("state-feed-");
+		threadFactory.setDaemon(true);
+		executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		executor.scheduleWithFixedDelay(this::heartbeat, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Override
+	public void publish(KeypadState state) {
+		submit(() -> update(state));
+	}
+
+	@Override
+	public StateSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	@Override
+	public void addSubscriber(AsyncContext asyncContext) throws IOException {
+		StateSubscriber subscriber = new StateSubscriber(asyncContext, executor,
+				closed -> submit(() -> subscribers.remove(closed)));
+		submit(() -> {
+			if (subscriber.isClosed()) {
+				return;
+			}
+			subscribers.add(subscriber);
+			// Start with the current state, queued before the first write.
+			if (snapshot != null) {
+				subscriber.send(snapshot.getEvent());
+			}
+			subscriber.start();
+		});
+	}
+
+	private void submit(Runnable task) {
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException ex) {
+			// Shutting down.
+		}
+	}
+
+	private void update(KeypadState state) {
+		byte[] json;
+		try {
+			json = objectMapper.writeValueAsBytes(state);
+		} catch (JsonProcessingException ex) {
+			logger.error("Failed to serialise keypad state", ex);
+			return;
+		}
+		if (snapshot != null && Arrays.equals(json, snapshot.getJson())) {
+			return;
+		}
+		sequence++;
+		snapshot = new StateSnapshot("\"" + startId + "-" + sequence + "\"", json, getEvent(json));
+		for (StateSubscriber subscriber : subscribers) {
+			subscriber.send(snapshot.getEvent());
+		}
+	}
+
+	private byte[] getEvent(byte[] json) {
+		ByteArrayOutputStream event = new ByteArrayOutputStream(json.length + 64);
+		byte[] header = ("id: " + startId + "-" + sequence + "\nevent: state\ndata: ").getBytes(StandardCharsets.UTF_8);
+		event.write(header, 0, header.length);
+		// Jackson doesn't write raw newlines, so the JSON fits on one data line.
+		event.write(json, 0, json.length);
+		event.write('\n');
+		event.write('\n');
+		return event.toByteArray();
+	}
+
+	private void heartbeat() {
+		for (StateSubscriber subscriber : subscribers) {
+			subscriber.sendIfIdle(HEARTBEAT);
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package uk.me.ruthmills.alarmkeypad.simulation;
+
+/**
+ * A change to an output pin of the simulated board.
+ *
+ * @author ruth
+ */
+public class PinChange {
+
+	private final String name;
+	private final boolean high;
+	private final long time;
+
+	public PinChange(String name, boolean high, long time) {
+		this.name = name;
+		this.high = high;
+		this.time = time;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isHigh() {
+		return high;
+	}
+
+	/**
+	 * The time of the change.
+	 *
+	 * @return The time, from System.nanoTime().
+	 */
+	public long getTime() {
+		return time;
+	}
+}
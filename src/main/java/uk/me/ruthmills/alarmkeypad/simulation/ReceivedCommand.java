@@ -0,0 +1,30 @@
+package uk.me.ruthmills.alarmkeypad.simulation;
+
+/**
+ * A command received by the stub alarm endpoint. The code is not kept.
+ *
+ * @author ruth
+ */
+public class ReceivedCommand {
+
+	private final String state;
+	private final long time;
+
+	public ReceivedCommand(String state, long time) {
+		this.state = state;
+		this.time = time;
+	}
+
+	public String getState() {
+		return state;
+	}
+
+	/**
+	 * The time the command was received.
+	 *
+	 * @return The time, from System.nanoTime().
+	 */
+	public long getTime() {
+		return time;
+	}
+}
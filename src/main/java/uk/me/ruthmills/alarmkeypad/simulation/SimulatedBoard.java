@@ -0,0 +1,278 @@
+package uk.me.ruthmills.alarmkeypad.simulation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import com.pi4j.io.gpio.Pin;
+
+import uk.me.ruthmills.alarmkeypad.hardware.Board;
+import uk.me.ruthmills.alarmkeypad.hardware.InputPin;
+import uk.me.ruthmills.alarmkeypad.hardware.KeypadLayout;
+import uk.me.ruthmills.alarmkeypad.hardware.OutputBank;
+import uk.me.ruthmills.alarmkeypad.hardware.OutputPin;
+import uk.me.ruthmills.alarmkeypad.hardware.PinListener;
+import uk.me.ruthmills.alarmkeypad.hardware.ShadowOutputBank;
+
+/**
+ * A board with no hardware, for running off a Raspberry Pi.
+ *
+ * Keys are pressed by joining a column output to a row input, as the keypad
+ * does, so an input reads low while it is joined to an output that is low, and
+ * high otherwise. Every change to an output, such as an LED or the buzzer, is
+ * recorded with the time it was made, to check and time what the keypad does.
+ *
+ * @author ruth
+ */
+@Component
+@Profile("simulation")
+public class SimulatedBoard implements Board {
+
+	private static final int MAX_CHANGES = 100000;
+
+	private final Map<Pin, SimulatedOutputPin> outputs = new LinkedHashMap<>();
+	private final Map<Pin, SimulatedInputPin> inputs = new LinkedHashMap<>();
+	private final Set<List<Pin>> switches = new HashSet<>();
+	private final Deque<PinChange> changes = new ArrayDeque<>();
+	private long writes;
+
+	@Override
+	public synchronized OutputPin provisionOutputPin(Pin pin, String name, boolean high, boolean shutdownHigh) {
+		SimulatedOutputPin output = new SimulatedOutputPin(name, high);
+		outputs.put(pin, output);
+		return output;
+	}
+
+	@Override
+	public synchronized OutputBank provisionOutputBank(Pin[] pins, String[] names, boolean high,
+			boolean shutdownHigh) {
+		SimulatedOutputPin[] bank = new SimulatedOutputPin[pins.length];
+		for (int pin = 0; pin < pins.length; pin++) {
+			bank[pin] = (SimulatedOutputPin) provisionOutputPin(pins[pin], names[pin], high, shutdownHigh);
+		}
+		return new SimulatedOutputBank(bank, high ? (1 << pins.length) - 1 : 0);
+	}
+
+	@Override
+	public synchronized InputPin provisionInputPin(Pin pin, String name) {
+		SimulatedInputPin input = new SimulatedInputPin(name);
+		inputs.put(pin, input);
+		return input;
+	}
+
+	public void pressKey(char key) {
+		setSwitch(KeypadLayout.getColumnPin(key), KeypadLayout.getRowPin(key), true);
+	}
+
+	public void releaseKey(char key) {
+		setSwitch(KeypadLayout.getColumnPin(key), KeypadLayout.getRowPin(key), false);
+	}
+
+	/**
+	 * Type keys one after another.
+	 *
+	 * @param keys The keys.
+	 * @param hold How long to hold each key down, in milliseconds.
+	 * @param gap  How long to wait between keys, in milliseconds.
+	 * @throws InterruptedException If interrupted while typing.
+	 */
+	public void type(String keys, long hold, long gap) throws InterruptedException {
+		for (char key : keys.toCharArray()) {
+			pressKey(key);
+			Thread.sleep(hold);
+			releaseKey(key);
+			Thread.sleep(gap);
+		}
+	}
+
+	/**
+	 * Get the number of writes to outputs, including those that left an output
+	 * as it was.
+	 *
+	 * @return The number of writes.
+	 */
+	public synchronized long getWrites() {
+		return writes;
+	}
+
+	public synchronized List<PinChange> getChanges() {
+		return new ArrayList<>(changes);
+	}
+
+	/**
+	 * Wait for an output to change.
+	 *
+	 * @param name    The name of the output.
+	 * @param high    The level to wait for it to change to.
+	 * @param since   The earliest time to look from, from System.nanoTime().
+	 * @param timeout How long to wait, in milliseconds.
+	 * @return The change, or null if there was none in time.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public synchronized PinChange waitForChange(String name, boolean high, long since, long timeout)
+			throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		while (true) {
+			for (PinChange change : changes) {
+				if (change.getTime() - since >= 0L && change.getName().equals(name) && change.isHigh() == high) {
+					return change;
+				}
+			}
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0L) {
+				return null;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+	}
+
+	private void setSwitch(Pin column, Pin row, boolean closed) {
+		List<Pin> key = List.of(column, row);
+		synchronized (this) {
+			if (closed) {
+				switches.add(key);
+			} else {
+				switches.remove(key);
+			}
+		}
+		update();
+	}
+
+	private void update() {
+		// Tell the listeners outside the lock, as the hardware would on its own thread.
+		List<Runnable> notifications = new ArrayList<>();
+		synchronized (this) {
+			for (Map.Entry<Pin, SimulatedInputPin> entry : inputs.entrySet()) {
+				SimulatedInputPin input = entry.getValue();
+				boolean high = !isPulledLow(entry.getKey());
+				if (high != input.high) {
+					input.high = high;
+					for (PinListener listener : input.listeners) {
+						notifications.add(() -> listener.pinChanged(high));
+					}
+				}
+			}
+		}
+		notifications.forEach(Runnable::run);
+	}
+
+	private boolean isPulledLow(Pin input) {
+		for (List<Pin> key : switches) {
+			if (key.get(1).equals(input)) {
+				SimulatedOutputPin output = outputs.get(key.get(0));
+				if (output != null && !output.high) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private synchronized void record(PinChange change) {
+		if (changes.size() == MAX_CHANGES) {
+			changes.removeFirst();
+		}
+		changes.addLast(change);
+		notifyAll();
+	}
+
+	private class SimulatedOutputPin implements OutputPin {
+
+		private final String name;
+		private volatile boolean high;
+
+		private SimulatedOutputPin(String name, boolean high) {
+			this.name = name;
+			this.high = high;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public boolean isHigh() {
+			return high;
+		}
+
+		@Override
+		public void setState(boolean high) {
+			long time = System.nanoTime();
+			synchronized (SimulatedBoard.this) {
+				writes++;
+				if (high == this.high) {
+					return;
+				}
+				this.high = high;
+				record(new PinChange(name, high, time));
+			}
+			update();
+		}
+	}
+
+	/**
+	 * Changes all its pins in one write, at the same time, as the GPIO registers
+	 * do.
+	 */
+	private class SimulatedOutputBank extends ShadowOutputBank {
+
+		private final SimulatedOutputPin[] pins;
+
+		private SimulatedOutputBank(SimulatedOutputPin[] pins, int levels) {
+			super(levels);
+			this.pins = pins;
+		}
+
+		@Override
+		protected void write(int levels, int changed) {
+			long time = System.nanoTime();
+			synchronized (SimulatedBoard.this) {
+				writes++;
+				for (int pin = 0; pin < pins.length; pin++) {
+					if ((changed & (1 << pin)) != 0) {
+						pins[pin].high = (levels & (1 << pin)) != 0;
+						record(new PinChange(pins[pin].name, pins[pin].high, time));
+					}
+				}
+			}
+			update();
+		}
+	}
+
+	private static class SimulatedInputPin implements InputPin {
+
+		private final String name;
+		private final List<PinListener> listeners = new CopyOnWriteArrayList<>();
+		private volatile boolean high = true;
+
+		private SimulatedInputPin(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public boolean isLow() {
+			return !high;
+		}
+
+		@Override
+		public void addListener(PinListener listener) {
+			listeners.add(listener);
+		}
+	}
+}
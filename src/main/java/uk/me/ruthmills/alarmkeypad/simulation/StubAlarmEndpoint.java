@@ -0,0 +1,88 @@
+package uk.me.ruthmills.alarmkeypad.simulation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Stands in for the alarm endpoint when simulating, recording the commands
+ * sent to it.
+ *
+ * @author ruth
+ */
+@Component
+@Profile("simulation")
+public class StubAlarmEndpoint {
+
+	private static final int MAX_COMMANDS = 1000;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	private final Deque<ReceivedCommand> commands = new ArrayDeque<>();
+
+	/**
+	 * Record a command, keeping its state but not its code. The state is null if
+	 * the body has none.
+	 *
+	 * @param body The JSON sent by the keypad, with the state and code.
+	 */
+	public synchronized void receive(String body) {
+		String state = getState(body);
+		if (commands.size() == MAX_COMMANDS) {
+			commands.removeFirst();
+		}
+		commands.addLast(new ReceivedCommand(state, System.nanoTime()));
+		notifyAll();
+	}
+
+	private String getState(String body) {
+		try {
+			JsonNode state = objectMapper.readTree(body).get("state");
+			// Keep just the state, not the code after it.
+			return state == null || !state.isTextual() ? null : state.asText().split(" ", 2)[0];
+		} catch (JsonProcessingException ex) {
+			return null;
+		}
+	}
+
+	public synchronized List<ReceivedCommand> getCommands() {
+		return new ArrayList<>(commands);
+	}
+
+	/**
+	 * Wait for a command to be received.
+	 *
+	 * @param state   The state the command is for.
+	 * @param since   The earliest time to look from, from System.nanoTime().
+	 * @param timeout How long to wait, in milliseconds.
+	 * @return The command, or null if none was received in time.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public synchronized ReceivedCommand waitForCommand(String state, long since, long timeout)
+			throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		while (true) {
+			for (ReceivedCommand command : commands) {
+				if (command.getTime() - since >= 0L && state.equals(command.getState())) {
+					return command;
+				}
+			}
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0L) {
+				return null;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package uk.me.ruthmills.alarmkeypad.stream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
+
+import uk.me.ruthmills.alarmkeypad.model.AlarmState;
+import uk.me.ruthmills.alarmkeypad.model.CameraMetrics;
+import uk.me.ruthmills.alarmkeypad.model.ViewerMetrics;
+
+/**
+ * Everything for one camera: its upstream reader, frame buffers, broadcaster
+ * and ring of recent frames. Each camera is read once, however many viewers
+ * it has.
+ * 
+ * @author ruth
+ */
+public class CameraStream {
+
+	private final String name;
+	private final Supplier<AlarmState> alarmState;
+	private final FramePool framePool;
+	private final FrameBroadcaster broadcaster = new FrameBroadcaster();
+	private final FrameRing recentFrames;
+	private final UpstreamReader upstreamReader;
+	private final Set<MjpegViewer> viewers = ConcurrentHashMap.newKeySet();
+
+	public CameraStream(String name, String streamURL, Supplier<AlarmState> alarmState, FramePool framePool,
+			FrameRing recentFrames) {
+		this.name = name;
+		this.alarmState = alarmState;
+		this.framePool = framePool;
+		this.recentFrames = recentFrames;
+		this.upstreamReader = new UpstreamReader(name, streamURL, this::handleFrame);
+	}
+
+	public void start(ScheduledExecutorService watchdogExecutor) {
+		upstreamReader.start(watchdogExecutor);
+	}
+
+	public void stop() {
+		upstreamReader.stop();
+		recentFrames.clear();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public FrameBroadcaster getBroadcaster() {
+		return broadcaster;
+	}
+
+	public FrameRing getRecentFrames() {
+		return recentFrames;
+	}
+
+	public UpstreamReader getUpstreamReader() {
+		return upstreamReader;
+	}
+
+	/**
+	 * Track a viewer for metrics. Viewers are forgotten once they are closed.
+	 * 
+	 * @param viewer The viewer.
+	 */
+	public void addViewer(MjpegViewer viewer) {
+		viewers.removeIf(MjpegViewer::isClosed);
+		viewers.add(viewer);
+	}
+
+	public CameraMetrics getMetrics() {
+		viewers.removeIf(MjpegViewer::isClosed);
+		List<ViewerMetrics> viewerMetrics = new ArrayList<>();
+		for (MjpegViewer viewer : viewers) {
+			viewerMetrics.add(viewer.getMetrics());
+		}
+		RateMeter frameRate = upstreamReader.getFrameRate();
+		RateMeter byteRate = upstreamReader.getByteRate();
+		return new CameraMetrics(name, upstreamReader.isConnected(), frameRate.getTotal(), byteRate.getTotal(),
+				frameRate.getRate(), byteRate.getRate(), upstreamReader.getReconnects(), upstreamReader.getStalls(),
+				viewerMetrics);
+	}
+
+	private void handleFrame(byte[] buffer, int offset, int length, long timestamp, long captureTime) {
+		AlarmState state = alarmState.get();
+
+		// the image is now available - stamp it and hand it to the viewers
+		Frame frame = framePool.acquire(ExifStamper.getStampedLength(buffer, offset, length), timestamp, captureTime,
+				state);
+		try {
+			frame.setLength(ExifStamper.stamp(buffer, offset, length, timestamp, state, frame.getBuffer()));
+			recentFrames.add(frame);
+			broadcaster.publish(frame);
+		} finally {
+			frame.release();
+		}
+	}
+}
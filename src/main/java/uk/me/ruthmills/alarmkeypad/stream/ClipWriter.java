@@ -0,0 +1,94 @@
+package uk.me.ruthmills.alarmkeypad.stream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes frames to an append-only clip file, with an index file of fixed-size
+ * entries giving the offset, length and timestamp of each frame.
+ *
+ * Frames are gathered into a large buffer before being written, so the SD card
+ * sees a few large sequential writes rather than one small write per frame.
+ * The index is only ever written after the frames it points to.
+ *
+ * @author ruth
+ */
+public class ClipWriter implements Closeable {
+
+	public static final int INDEX_ENTRY_SIZE = 8 + 4 + 8;
+
+	private static final int DATA_BUFFER_SIZE = 1024 * 1024;
+	private static final int INDEX_BUFFER_SIZE = 4096 * INDEX_ENTRY_SIZE;
+
+	private final FileChannel dataChannel;
+	private final FileChannel indexChannel;
+	private final ByteBuffer dataBuffer = ByteBuffer.allocateDirect(DATA_BUFFER_SIZE);
+	private final ByteBuffer indexBuffer = ByteBuffer.allocateDirect(INDEX_BUFFER_SIZE);
+	private long offset;
+
+	public ClipWriter(Path dataFile, Path indexFile) throws IOException {
+		dataChannel = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+		indexChannel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+		offset = dataChannel.size();
+	}
+
+	public void write(Frame frame) throws IOException {
+		ByteBuffer view = frame.getBuffer().duplicate();
+		view.limit(frame.getLength()).position(0);
+		if (view.remaining() > dataBuffer.remaining()) {
+			flush();
+		}
+		if (view.remaining() > dataBuffer.capacity()) {
+			writeFully(dataChannel, view);
+		} else {
+			dataBuffer.put(view);
+		}
+
+		if (indexBuffer.remaining() < INDEX_ENTRY_SIZE) {
+			flush();
+		}
+		indexBuffer.putLong(offset).putInt(frame.getLength()).putLong(frame.getTimestamp());
+		offset += frame.getLength();
+	}
+
+	/**
+	 * Write out everything buffered so far.
+	 *
+	 * @throws IOException If the clip could not be written.
+	 */
+	public void flush() throws IOException {
+		dataBuffer.flip();
+		writeFully(dataChannel, dataBuffer);
+		dataBuffer.clear();
+		indexBuffer.flip();
+		writeFully(indexChannel, indexBuffer);
+		indexBuffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+			dataChannel.force(false);
+			indexChannel.force(false);
+		} finally {
+			try {
+				dataChannel.close();
+			} finally {
+				indexChannel.close();
+			}
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+}
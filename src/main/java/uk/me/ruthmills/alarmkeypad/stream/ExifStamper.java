@@ -0,0 +1,397 @@
+package uk.me.ruthmills.alarmkeypad.stream;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import uk.me.ruthmills.alarmkeypad.model.AlarmState;
+
+/**
+ * Stamps JPEG frames with their timestamp and the alarm state.
+ *
+ * Rather than parsing and rewriting the EXIF metadata for every frame, a small
+ * pre-built APP1/EXIF segment is written directly after SOI, with fixed-width
+ * slots for the values patched in place. The timestamp goes in the Owner Name
+ * tag of the EXIF directory, as before, and the alarm state goes in the Image
+ * Description tag. The rest of the frame is copied untouched.
+ *
+ * If the camera has written EXIF of its own, its tags are kept. Its TIFF data
+ * is copied as it is, so that every offset in it still holds, followed by new
+ * copies of its first and EXIF directories with the two tags added, and the
+ * segment goes where the camera's was. If the camera's EXIF can't be made
+ * sense of, or there is no room for the new directories, it is replaced by the
+ * pre-built segment instead.
+ *
+ * @author ruth
+ */
+public class ExifStamper {
+
+	private static final int TAG_IMAGE_DESCRIPTION = 0x010E;
+	private static final int TAG_EXIF_OFFSET = 0x8769;
+	private static final int TAG_OWNER_NAME = 0xFDE8;
+	private static final int TYPE_ASCII = 2;
+	private static final int TYPE_LONG = 4;
+
+	private static final int STATE_SLOT_SIZE = 16;
+	private static final int TIMESTAMP_DIGITS = 13;
+	private static final int TIMESTAMP_SLOT_SIZE = TIMESTAMP_DIGITS + 1;
+
+	// Offsets within the TIFF structure, which starts after "Exif\0\0".
+	private static final int IFD0_OFFSET = 8;
+	private static final int STATE_COUNT_OFFSET = IFD0_OFFSET + 2 + 4;
+	private static final int EXIF_IFD_OFFSET = IFD0_OFFSET + 2 + 2 * 12 + 4;
+	private static final int STATE_OFFSET = EXIF_IFD_OFFSET + 2 + 12 + 4;
+	private static final int TIMESTAMP_OFFSET = STATE_OFFSET + STATE_SLOT_SIZE;
+	private static final int TIFF_LENGTH = TIMESTAMP_OFFSET + TIMESTAMP_SLOT_SIZE;
+
+	private static final int ENTRY_SIZE = 12;
+	private static final int MAX_SEGMENT_LENGTH = 2 + 0xFFFF;
+
+	private static final byte[] EXIF_IDENTIFIER = { 'E', 'x', 'i', 'f', 0, 0 };
+	private static final int EXIF_HEADER_LENGTH = 2 + 2 + EXIF_IDENTIFIER.length;
+	private static final int TIFF_START = 2 + EXIF_HEADER_LENGTH;
+
+	/**
+	 * The length of SOI plus the APP1 segment written after it.
+	 */
+	public static final int HEADER_LENGTH = TIFF_START + TIFF_LENGTH;
+
+	private static final byte[] TEMPLATE = buildTemplate();
+	private static final byte[][] STATE_NAMES = buildStateNames();
+
+	/**
+	 * Work out how long a frame will be once it has been stamped.
+	 *
+	 * @param image  The buffer holding the original frame.
+	 * @param offset The offset of the frame.
+	 * @param length The length of the frame.
+	 * @return The length of the stamped frame.
+	 */
+	public static int getStampedLength(byte[] image, int offset, int length) {
+		int exifStart = findExifSegment(image, offset, length);
+		if (exifStart < 0) {
+			return length - 2 + HEADER_LENGTH;
+		}
+		CameraExif exif = CameraExif.parse(image, exifStart);
+		int stampedSegmentLength = exif == null ? HEADER_LENGTH - 2 : exif.getMergedLength();
+		return length - segmentLength(image, exifStart) + stampedSegmentLength;
+	}
+
+	/**
+	 * Write a stamped copy of a frame to the start of a buffer.
+	 *
+	 * @param image      The buffer holding the original frame.
+	 * @param offset     The offset of the frame.
+	 * @param length     The length of the frame.
+	 * @param timestamp  The timestamp in milliseconds since the epoch.
+	 * @param alarmState The alarm state.
+	 * @param output     The buffer to write the stamped frame to.
+	 * @return The length of the stamped frame.
+	 */
+	public static int stamp(byte[] image, int offset, int length, long timestamp, AlarmState alarmState,
+			ByteBuffer output) {
+		output.clear();
+		byte[] name = STATE_NAMES[(alarmState == null ? AlarmState.UNKNOWN : alarmState).ordinal()];
+		int exifStart = findExifSegment(image, offset, length);
+		int rest;
+		if (exifStart < 0) {
+			putTemplate(output, name, timestamp);
+			rest = offset + 2;
+		} else {
+			rest = exifStart + segmentLength(image, exifStart);
+			CameraExif exif = CameraExif.parse(image, exifStart);
+			if (exif != null) {
+				// Keep the camera's tags, in place of its segment.
+				output.put(image, offset, exifStart - offset);
+				exif.putMergedSegment(output, name, timestamp);
+			} else {
+				putTemplate(output, name, timestamp);
+				output.put(image, offset + 2, exifStart - (offset + 2));
+			}
+		}
+		output.put(image, rest, offset + length - rest);
+		return output.position();
+	}
+
+	private static void putTemplate(ByteBuffer output, byte[] name, long timestamp) {
+		output.put(TEMPLATE);
+		putState(output, TIFF_START + STATE_OFFSET, name);
+		// The count includes the NUL terminator, which is already in the template.
+		int count = name.length + 1;
+		output.put(TIFF_START + STATE_COUNT_OFFSET + 2, (byte) (count >>> 8));
+		output.put(TIFF_START + STATE_COUNT_OFFSET + 3, (byte) count);
+		putTimestamp(output, TIFF_START + TIMESTAMP_OFFSET, timestamp);
+	}
+
+	private static void putState(ByteBuffer output, int position, byte[] name) {
+		for (int i = 0; i < name.length; i++) {
+			output.put(position + i, name[i]);
+		}
+	}
+
+	private static void putTimestamp(ByteBuffer output, int position, long timestamp) {
+		// Fixed width, zero-padded on the left.
+		long value = Math.max(timestamp, 0L);
+		for (int digit = TIMESTAMP_DIGITS - 1; digit >= 0; digit--) {
+			output.put(position + digit, (byte) ('0' + (value % 10L)));
+			value /= 10L;
+		}
+	}
+
+	private static int findExifSegment(byte[] image, int offset, int length) {
+		int end = offset + length;
+		int pos = offset + 2;
+		// Only look through the application segments at the start of the frame.
+		while (pos + 4 + EXIF_IDENTIFIER.length <= end && (image[pos] & 0xFF) == 0xFF
+				&& (image[pos + 1] & 0xF0) == 0xE0) {
+			int segmentLength = segmentLength(image, pos);
+			if (pos + segmentLength > end) {
+				return -1;
+			}
+			if ((image[pos + 1] & 0xFF) == 0xE1 && isExif(image, pos + 4)) {
+				return pos;
+			}
+			pos += segmentLength;
+		}
+		return -1;
+	}
+
+	private static boolean isExif(byte[] image, int pos) {
+		for (int i = 0; i < EXIF_IDENTIFIER.length; i++) {
+			if (image[pos + i] != EXIF_IDENTIFIER[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int segmentLength(byte[] image, int pos) {
+		return 2 + (((image[pos + 2] & 0xFF) << 8) | (image[pos + 3] & 0xFF));
+	}
+
+	private static byte[] buildTemplate() {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH);
+		buffer.put((byte) 0xFF).put((byte) 0xD8);
+		buffer.put((byte) 0xFF).put((byte) 0xE1).putShort((short) (HEADER_LENGTH - 4));
+		buffer.put(EXIF_IDENTIFIER);
+
+		// TIFF header, big-endian.
+		buffer.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(IFD0_OFFSET);
+
+		// IFD0: image description and a pointer to the EXIF directory.
+		buffer.putShort((short) 2);
+		putEntry(buffer, TAG_IMAGE_DESCRIPTION, TYPE_ASCII, STATE_SLOT_SIZE, STATE_OFFSET);
+		putEntry(buffer, TAG_EXIF_OFFSET, TYPE_LONG, 1, EXIF_IFD_OFFSET);
+		buffer.putInt(0);
+
+		// EXIF directory: owner name.
+		buffer.putShort((short) 1);
+		putEntry(buffer, TAG_OWNER_NAME, TYPE_ASCII, TIMESTAMP_SLOT_SIZE, TIMESTAMP_OFFSET);
+		buffer.putInt(0);
+
+		// Value slots, NUL filled. The state slot is longer than any state name.
+		return buffer.array();
+	}
+
+	private static void putEntry(ByteBuffer buffer, int tag, int type, int count, int value) {
+		buffer.putShort((short) tag).putShort((short) type).putInt(count).putInt(value);
+	}
+
+	private static int getShort(byte[] image, int pos, boolean bigEndian) {
+		return bigEndian ? ((image[pos] & 0xFF) << 8) | (image[pos + 1] & 0xFF)
+				: ((image[pos + 1] & 0xFF) << 8) | (image[pos] & 0xFF);
+	}
+
+	private static int getInt(byte[] image, int pos, boolean bigEndian) {
+		return bigEndian ? (getShort(image, pos, true) << 16) | getShort(image, pos + 2, true)
+				: (getShort(image, pos + 2, false) << 16) | getShort(image, pos, false);
+	}
+
+	private static byte[][] buildStateNames() {
+		AlarmState[] states = AlarmState.values();
+		byte[][] names = new byte[states.length][];
+		for (AlarmState state : states) {
+			names[state.ordinal()] = state.name().toLowerCase().getBytes(StandardCharsets.US_ASCII);
+		}
+		return names;
+	}
+
+	/**
+	 * The EXIF segment written by the camera, checked far enough to add the
+	 * stamp's tags to its directories.
+	 */
+	private static class CameraExif {
+
+		private final byte[] image;
+		private final int tiff;
+		private final int tiffLength;
+		private final boolean bigEndian;
+		private final int ifd0;
+		private final int ifd0Count;
+		private final int exifIfd;
+		private final int exifIfdCount;
+		private final int newIfd0;
+		private final int newExifIfd;
+		private final int stateOffset;
+		private final int timestampOffset;
+		private final int mergedTiffLength;
+
+		private CameraExif(byte[] image, int tiff, int tiffLength, boolean bigEndian, int ifd0, int ifd0Count,
+				int exifIfd, int exifIfdCount) {
+			this.image = image;
+			this.tiff = tiff;
+			this.tiffLength = tiffLength;
+			this.bigEndian = bigEndian;
+			this.ifd0 = ifd0;
+			this.ifd0Count = ifd0Count;
+			this.exifIfd = exifIfd;
+			this.exifIfdCount = exifIfdCount;
+			// The new directories go after the camera's data, on a word boundary.
+			this.newIfd0 = (tiffLength + 1) & ~1;
+			this.newExifIfd = newIfd0 + getDirectoryLength(ifd0, ifd0Count, TAG_IMAGE_DESCRIPTION,
+					TAG_EXIF_OFFSET);
+			this.stateOffset = newExifIfd + getDirectoryLength(exifIfd, exifIfdCount, TAG_OWNER_NAME);
+			this.timestampOffset = stateOffset + STATE_SLOT_SIZE;
+			this.mergedTiffLength = timestampOffset + TIMESTAMP_SLOT_SIZE;
+		}
+
+		/**
+		 * Check the camera's EXIF segment.
+		 *
+		 * @param image The buffer holding the frame.
+		 * @param start The offset of the segment.
+		 * @return The segment, or null if it can't be added to.
+		 */
+		private static CameraExif parse(byte[] image, int start) {
+			int tiff = start + EXIF_HEADER_LENGTH;
+			int tiffLength = start + segmentLength(image, start) - tiff;
+			if (tiffLength < 8 || image[tiff] != image[tiff + 1] || (image[tiff] != 'M' && image[tiff] != 'I')) {
+				return null;
+			}
+			boolean bigEndian = image[tiff] == 'M';
+			if (getShort(image, tiff + 2, bigEndian) != 42) {
+				return null;
+			}
+			int ifd0 = getInt(image, tiff + 4, bigEndian);
+			int ifd0Count = getDirectoryCount(image, tiff, tiffLength, ifd0, bigEndian);
+			if (ifd0Count < 0) {
+				return null;
+			}
+			int exifIfd = -1;
+			int exifIfdCount = 0;
+			for (int i = 0; i < ifd0Count; i++) {
+				int entry = tiff + ifd0 + 2 + i * ENTRY_SIZE;
+				if (getShort(image, entry, bigEndian) == TAG_EXIF_OFFSET) {
+					exifIfd = getInt(image, entry + 8, bigEndian);
+					exifIfdCount = getDirectoryCount(image, tiff, tiffLength, exifIfd, bigEndian);
+					if (exifIfdCount < 0) {
+						return null;
+					}
+				}
+			}
+			CameraExif exif = new CameraExif(image, tiff, tiffLength, bigEndian, ifd0, ifd0Count, exifIfd,
+					exifIfdCount);
+			return exif.getMergedLength() <= MAX_SEGMENT_LENGTH ? exif : null;
+		}
+
+		private static int getDirectoryCount(byte[] image, int tiff, int tiffLength, int ifd, boolean bigEndian) {
+			if (ifd < 8 || ifd > tiffLength - 2) {
+				return -1;
+			}
+			int count = getShort(image, tiff + ifd, bigEndian);
+			return ifd + 2 + count * ENTRY_SIZE + 4 <= tiffLength ? count : -1;
+		}
+
+		/**
+		 * The length of the segment once the stamp's tags have been added.
+		 *
+		 * @return The length, including the marker.
+		 */
+		private int getMergedLength() {
+			return EXIF_HEADER_LENGTH + mergedTiffLength;
+		}
+
+		private void putMergedSegment(ByteBuffer output, byte[] name, long timestamp) {
+			output.put((byte) 0xFF).put((byte) 0xE1).putShort((short) (getMergedLength() - 2));
+			output.put(EXIF_IDENTIFIER);
+			ByteBuffer merged = output.slice().order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+			merged.put(image, tiff, tiffLength);
+			merged.putInt(4, newIfd0);
+			if (merged.position() < newIfd0) {
+				merged.put((byte) 0);
+			}
+
+			int next = getInt(image, tiff + ifd0 + 2 + ifd0Count * ENTRY_SIZE, bigEndian);
+			putDirectory(merged, ifd0, ifd0Count, next,
+					new int[] { TAG_IMAGE_DESCRIPTION, TYPE_ASCII, name.length + 1, stateOffset },
+					new int[] { TAG_EXIF_OFFSET, TYPE_LONG, 1, newExifIfd });
+			next = exifIfd < 0 ? 0 : getInt(image, tiff + exifIfd + 2 + exifIfdCount * ENTRY_SIZE, bigEndian);
+			putDirectory(merged, exifIfd, exifIfdCount, next,
+					new int[] { TAG_OWNER_NAME, TYPE_ASCII, TIMESTAMP_SLOT_SIZE, timestampOffset });
+
+			// Value slots, NUL filled.
+			for (int i = 0; i < STATE_SLOT_SIZE + TIMESTAMP_SLOT_SIZE; i++) {
+				merged.put((byte) 0);
+			}
+			putState(merged, stateOffset, name);
+			putTimestamp(merged, timestampOffset, timestamp);
+			output.position(output.position() + mergedTiffLength);
+		}
+
+		private int getDirectoryLength(int ifd, int count, int... tags) {
+			int entries = count + tags.length;
+			for (int i = 0; i < count; i++) {
+				if (contains(tags, getShort(image, tiff + ifd + 2 + i * ENTRY_SIZE, bigEndian))) {
+					entries--;
+				}
+			}
+			return 2 + entries * ENTRY_SIZE + 4;
+		}
+
+		/**
+		 * Write a copy of one of the camera's directories, with the given entries
+		 * in place of any it has with the same tags, keeping them in tag order.
+		 */
+		private void putDirectory(ByteBuffer merged, int ifd, int count, int next, int[]... added) {
+			int start = merged.position();
+			merged.putShort((short) 0);
+			int entries = 0;
+			int index = 0;
+			for (int i = 0; i < count; i++) {
+				int entry = tiff + ifd + 2 + i * ENTRY_SIZE;
+				int tag = getShort(image, entry, bigEndian);
+				for (; index < added.length && added[index][0] < tag; index++, entries++) {
+					putEntry(merged, added[index][0], added[index][1], added[index][2], added[index][3]);
+				}
+				if (!isAdded(added, tag)) {
+					// Offsets in the entry still hold, as the camera's data is where it was.
+					merged.put(image, entry, ENTRY_SIZE);
+					entries++;
+				}
+			}
+			for (; index < added.length; index++, entries++) {
+				putEntry(merged, added[index][0], added[index][1], added[index][2], added[index][3]);
+			}
+			merged.putShort(start, (short) entries);
+			merged.putInt(next);
+		}
+
+		private static boolean contains(int[] tags, int tag) {
+			for (int candidate : tags) {
+				if (candidate == tag) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private static boolean isAdded(int[][] added, int tag) {
+			for (int[] entry : added) {
+				if (entry[0] == tag) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
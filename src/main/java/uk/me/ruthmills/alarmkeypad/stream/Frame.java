@@ -0,0 +1,172 @@
+package uk.me.ruthmills.alarmkeypad.stream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import uk.me.ruthmills.alarmkeypad.model.AlarmState;
+
+/**
+ * A single JPEG frame read from the camera, already stamped with its timestamp
+ * and the alarm state at the time it was captured.
+ *
+ * The frame's buffer has room in front of the image for its multipart header,
+ * so that the header and image can be sent to each viewer in a single write.
+ *
+ * Frames are pooled and reference counted. Whoever holds a frame must call
+ * {@link #release()} when done with it, and anyone handing it on to another
+ * holder must call {@link #retain()} first.
+ *
+ * @author ruth
+ */
+public class Frame {
+
+	/**
+	 * The space reserved in front of the image for the multipart header.
+	 */
+	public static final int HEADROOM = 128;
+
+	private static final int COPY_BUFFER_SIZE = 16384;
+	private static final ThreadLocal<byte[]> copyBuffer = ThreadLocal.withInitial(() -> new byte[COPY_BUFFER_SIZE]);
+
+	private final ByteBuffer buffer;
+	private final ByteBuffer image;
+	private final FramePool pool;
+	private final AtomicInteger refCount = new AtomicInteger();
+	private int length;
+	private int headerLength;
+	private long timestamp;
+	private long captureTime;
+	private AlarmState alarmState;
+
+	Frame(ByteBuffer buffer, FramePool pool) {
+		this.buffer = buffer;
+		this.image = buffer.duplicate().position(HEADROOM).slice();
+		this.pool = pool;
+	}
+
+	void init(long timestamp, long captureTime, AlarmState alarmState) {
+		this.length = 0;
+		this.headerLength = 0;
+		this.timestamp = timestamp;
+		this.captureTime = captureTime;
+		this.alarmState = alarmState;
+		refCount.set(1);
+	}
+
+	/**
+	 * The buffer holding the image, starting at index zero. Only the reader that
+	 * acquired the frame may write to it, and only before it is published.
+	 *
+	 * @return The buffer.
+	 */
+	public ByteBuffer getBuffer() {
+		return image;
+	}
+
+	public int getCapacity() {
+		return image.capacity();
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Set the length of the image, and write its multipart header.
+	 *
+	 * @param length The length of the image.
+	 */
+	public void setLength(int length) {
+		this.length = length;
+		this.headerLength = MultipartHeader.encode(buffer, HEADROOM, length);
+	}
+
+	/**
+	 * The length of the frame as sent to viewers, including its multipart
+	 * header.
+	 *
+	 * @return The length.
+	 */
+	public int getPartLength() {
+		return headerLength + length;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * The monotonic capture time, for measuring latency. Unlike the timestamp,
+	 * this is unaffected by changes to the wall clock.
+	 *
+	 * @return The time from {@link System#nanoTime()}.
+	 */
+	public long getCaptureTime() {
+		return captureTime;
+	}
+
+	public AlarmState getAlarmState() {
+		return alarmState;
+	}
+
+	/**
+	 * Write the image to an output stream, without copying if the frame is held
+	 * on the heap.
+	 *
+	 * @param outputStream The output stream.
+	 * @throws IOException If the image could not be written.
+	 */
+	public void writeTo(OutputStream outputStream) throws IOException {
+		int offset = 0;
+		while (offset < length) {
+			offset = write(outputStream, image, offset, length);
+		}
+	}
+
+	/**
+	 * Write the next part of the frame, multipart header and image, to an output
+	 * stream. Frames held on the heap are written in one go; off-heap frames one
+	 * chunk at a time, for use with non-blocking output.
+	 *
+	 * @param outputStream The output stream.
+	 * @param offset       How much of the part has been written already.
+	 * @return How much of the part has been written now.
+	 * @throws IOException If the frame could not be written.
+	 */
+	public int writePartTo(OutputStream outputStream, int offset) throws IOException {
+		int start = HEADROOM - headerLength;
+		return write(outputStream, buffer, start + offset, HEADROOM + length) - start;
+	}
+
+	private static int write(OutputStream outputStream, ByteBuffer source, int from, int to) throws IOException {
+		if (source.hasArray()) {
+			outputStream.write(source.array(), source.arrayOffset() + from, to - from);
+			return to;
+		}
+		ByteBuffer view = source.duplicate();
+		view.limit(to).position(from);
+		byte[] bytes = copyBuffer.get();
+		int chunk = Math.min(bytes.length, view.remaining());
+		view.get(bytes, 0, chunk);
+		outputStream.write(bytes, 0, chunk);
+		return from + chunk;
+	}
+
+	public Frame retain() {
+		refCount.incrementAndGet();
+		return this;
+	}
+
+	public void release() {
+		int count = refCount.decrementAndGet();
+		if (count == 0) {
+			if (pool != null) {
+				pool.recycle(this);
+			}
+		} else if (count < 0) {
+			throw new IllegalStateException("Frame released too many times");
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package uk.me.ruthmills.alarmkeypad.stream;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Fans frames out from the upstream reader to every subscribed viewer.
+ * 
+ * The latest frame is kept, so new subscribers get it straight away, and keep
+ * getting it if the camera is reconnecting.
+ * 
+ * @author ruth
+ */
+public class FrameBroadcaster implements FrameSource {
+
+	private final List<FrameQueue> queues = new CopyOnWriteArrayList<>();
+	private final LatestFrameCache latestFrame = new LatestFrameCache();
+
+	@Override
+	public FrameQueue subscribe(int capacity, Runnable listener) {
+		FrameQueue queue = new FrameQueue(capacity, listener);
+		queues.add(queue);
+		Frame frame = latestFrame.get();
+		if (frame != null) {
+			try {
+				queue.offer(frame);
+			} finally {
+				frame.release();
+			}
+		}
+		return queue;
+	}
+
+	@Override
+	public void unsubscribe(FrameQueue queue) {
+		queues.remove(queue);
+		queue.close();
+	}
+
+	public void publish(Frame frame) {
+		latestFrame.update(frame);
+		for (FrameQueue queue : queues) {
+			queue.offer(frame);
+		}
+	}
+
+	/**
+	 * Get the latest frame. The caller must release it when done.
+	 * 
+	 * @return The frame, or null if there isn't one yet.
+	 */
+	public Frame getLatestFrame() {
+		return latestFrame.get();
+	}
+
+	public int getViewerCount() {
+		return queues.size();
+	}
+}
@@ -0,0 +1,92 @@
+package uk.me.ruthmills.alarmkeypad.stream;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import uk.me.ruthmills.alarmkeypad.model.AlarmState;
+
+/**
+ * Size-classed pool of reusable frame buffers, so that frames can be passed
+ * through the stream pipeline without allocating a new buffer for each one.
+ *
+ * Buffers come in power of two sizes from {@link #MIN_SIZE} to
+ * {@link #MAX_SIZE}, including the frame headroom. Anything larger is
+ * allocated as a one-off and left for the garbage collector.
+ *
+ * @author ruth
+ */
+public class FramePool {
+
+	public static final int MIN_SIZE = 64 * 1024;
+	public static final int MAX_SIZE = 4 * 1024 * 1024;
+
+	private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+	private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+
+	private final boolean direct;
+	private final int maxFramesPerSize;
+	private final Queue<Frame>[] freeFrames;
+	private final AtomicInteger[] freeCounts;
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public FramePool(boolean direct, int maxFramesPerSize) {
+		this.direct = direct;
+		this.maxFramesPerSize = maxFramesPerSize;
+		this.freeFrames = new Queue[SIZE_CLASSES];
+		this.freeCounts = new AtomicInteger[SIZE_CLASSES];
+		for (int i = 0; i < SIZE_CLASSES; i++) {
+			freeFrames[i] = new ConcurrentLinkedQueue<>();
+			freeCounts[i] = new AtomicInteger();
+		}
+	}
+
+	/**
+	 * Get a frame with at least the given capacity. The frame starts with a
+	 * reference count of one.
+	 *
+	 * @param capacity    The capacity needed.
+	 * @param timestamp   The capture timestamp in milliseconds since the epoch.
+	 * @param captureTime The capture time from {@link System#nanoTime()}.
+	 * @param alarmState  The alarm state at the time of capture.
+	 * @return The frame.
+	 */
+	public Frame acquire(int capacity, long timestamp, long captureTime, AlarmState alarmState) {
+		Frame frame;
+		int size = Frame.HEADROOM + capacity;
+		if (size > MAX_SIZE) {
+			frame = new Frame(allocate(size), null);
+		} else {
+			int sizeClass = getSizeClass(size);
+			frame = freeFrames[sizeClass].poll();
+			if (frame != null) {
+				freeCounts[sizeClass].decrementAndGet();
+			} else {
+				frame = new Frame(allocate(MIN_SIZE << sizeClass), this);
+			}
+		}
+		frame.init(timestamp, captureTime, alarmState);
+		return frame;
+	}
+
+	void recycle(Frame frame) {
+		int sizeClass = getSizeClass(Frame.HEADROOM + frame.getCapacity());
+		if (freeCounts[sizeClass].incrementAndGet() <= maxFramesPerSize) {
+			freeFrames[sizeClass].offer(frame);
+		} else {
+			freeCounts[sizeClass].decrementAndGet();
+		}
+	}
+
+	private ByteBuffer allocate(int capacity) {
+		return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+	private static int getSizeClass(int capacity) {
+		if (capacity <= MIN_SIZE) {
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT;
+	}
+}
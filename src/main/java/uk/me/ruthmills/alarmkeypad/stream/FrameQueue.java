@@ -0,0 +1,104 @@
+package uk.me.ruthmills.alarmkeypad.stream;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Bounded per-viewer frame queue. When the queue is full the oldest frame is
+ * dropped, so a slow viewer never holds up the upstream reader.
+ * 
+ * The queue holds a reference to each frame in it. A frame taken from the
+ * queue must be released by the caller.
+ * 
+ * @author ruth
+ */
+public class FrameQueue {
+
+	private final int capacity;
+	private final Runnable listener;
+	private final Runnable drainListener;
+	private final Deque<Frame> frames;
+	private long droppedFrames;
+	private boolean closed;
+
+	/**
+	 * Create a frame queue.
+	 * 
+	 * @param capacity The maximum number of frames to hold.
+	 * @param listener Called after each frame is added, outside any lock.
+	 */
+	public FrameQueue(int capacity, Runnable listener) {
+		this(capacity, listener, null);
+	}
+
+	/**
+	 * Create a frame queue that tells its source when it has been emptied.
+	 * 
+	 * @param capacity      The maximum number of frames to hold.
+	 * @param listener      Called after each frame is added, outside any lock.
+	 * @param drainListener Called after the last frame is taken, outside any
+	 *                      lock.
+	 */
+	public FrameQueue(int capacity, Runnable listener, Runnable drainListener) {
+		this.capacity = capacity;
+		this.listener = listener;
+		this.drainListener = drainListener;
+		this.frames = new ArrayDeque<>(capacity);
+	}
+
+	/**
+	 * Add a frame to the queue, dropping the oldest frame if the queue is full.
+	 * 
+	 * @param frame The frame.
+	 */
+	public void offer(Frame frame) {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			if (frames.size() >= capacity) {
+				frames.pollFirst().release();
+				droppedFrames++;
+			}
+			frames.addLast(frame.retain());
+		}
+		listener.run();
+	}
+
+	/**
+	 * Take the next frame without waiting.
+	 * 
+	 * @return The next frame, or null if the queue is empty.
+	 */
+	public Frame poll() {
+		Frame frame;
+		boolean drained;
+		synchronized (this) {
+			frame = frames.pollFirst();
+			drained = frame != null && frames.isEmpty();
+		}
+		if (drained && drainListener != null) {
+			drainListener.run();
+		}
+		return frame;
+	}
+
+	public synchronized boolean isEmpty() {
+		return frames.isEmpty();
+	}
+
+	/**
+	 * Close the queue, releasing any frames still in it.
+	 */
+	public synchronized void close() {
+		closed = true;
+		Frame frame;
+		while ((frame = frames.pollFirst()) != null) {
+			frame.release();
+		}
+	}
+
+	public synchronized long getDroppedFrames() {
+		return droppedFrames;
+	}
+}
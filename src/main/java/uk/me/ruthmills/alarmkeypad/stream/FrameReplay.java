@@ -0,0 +1,121 @@
+package uk.me.ruthmills.alarmkeypad.stream;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays frames for a single viewer from the ring of recent frames, starting
+ * at a given time, at the original pacing or faster. Once the replay catches
+ * up it carries on with live frames as they arrive in the ring.
+ * 
+ * Frames are only queued once the viewer has taken the previous one, so a
+ * slow viewer slows the replay down rather than losing frames.
+ * 
+ * Nothing is scheduled while the replay waits: it is woken when the viewer
+ * empties its queue or a new frame is added to the ring, and otherwise only
+ * scheduled for when the next frame is due.
+ * 
+ * @author ruth
+ */
+public class FrameReplay implements FrameSource {
+
+	private static final double NANOS_PER_MILLI = 1000000d;
+
+	private final FrameRing ring;
+	private final ScheduledExecutorService scheduler;
+	private final long from;
+	private final double speed;
+	private final Runnable wakeUp = this::wake;
+
+	private FrameQueue queue;
+	private ScheduledFuture<?> future;
+	private boolean closed;
+	private boolean pending;
+	private long sequence;
+	private long startTime;
+	private long startTimestamp;
+	private boolean started;
+
+	/**
+	 * Create a replay.
+	 * 
+	 * @param ring      The ring of recent frames.
+	 * @param scheduler The executor to schedule each frame with.
+	 * @param from      The time to start from, in milliseconds since the epoch.
+	 * @param speed     The replay speed, where 1 is the original pacing.
+	 */
+	public FrameReplay(FrameRing ring, ScheduledExecutorService scheduler, long from, double speed) {
+		this.ring = ring;
+		this.scheduler = scheduler;
+		this.from = from;
+		this.speed = speed;
+	}
+
+	@Override
+	public synchronized FrameQueue subscribe(int capacity, Runnable listener) {
+		queue = new FrameQueue(capacity, listener, wakeUp);
+		sequence = ring.getSequence(from);
+		ring.addListener(wakeUp);
+		wake();
+		return queue;
+	}
+
+	@Override
+	public synchronized void unsubscribe(FrameQueue queue) {
+		closed = true;
+		ring.removeListener(wakeUp);
+		if (future != null) {
+			future.cancel(false);
+		}
+		queue.close();
+	}
+
+	private synchronized void wake() {
+		schedule(0L);
+	}
+
+	private void schedule(long delay) {
+		if (!closed && !pending) {
+			pending = true;
+			future = scheduler.schedule(this::replay, delay, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private synchronized void replay() {
+		pending = false;
+		if (closed || !queue.isEmpty()) {
+			// Woken again when the viewer takes the last frame.
+			return;
+		}
+		// Skip ahead if the replay has fallen out of the back of the ring.
+		sequence = Math.max(sequence, ring.getFirstSequence());
+		Frame frame = ring.getFrame(sequence);
+		if (frame == null) {
+			// Woken again when the next frame is added to the ring.
+			return;
+		}
+		try {
+			long delay = getDelay(frame);
+			if (delay <= 0L) {
+				queue.offer(frame);
+				sequence++;
+			} else {
+				schedule(delay);
+			}
+		} finally {
+			frame.release();
+		}
+	}
+
+	private long getDelay(Frame frame) {
+		long now = System.nanoTime();
+		if (!started) {
+			started = true;
+			startTime = now;
+			startTimestamp = frame.getTimestamp();
+		}
+		long due = startTime + (long) ((frame.getTimestamp() - startTimestamp) * NANOS_PER_MILLI / speed);
+		return due - now;
+	}
+}
@@ -0,0 +1,218 @@
+package uk.me.ruthmills.alarmkeypad.stream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory ring of the most recent frames, covering a fixed length of time
+ * and bounded in size. The ring holds a reference to each frame in it.
+ *
+ * Each frame is given a sequence number as it is added, so that a reader can
+ * step through the ring and on into live frames without missing any. The
+ * frame timestamps are kept in a separate index, to seek by time with a binary
+ * search.
+ *
+ * The byte limit counts each frame's length, with its header room, rather than
+ * the capacity of its pooled buffer, which may be up to twice that. If the
+ * limit is reached before the ring covers its full length of time, a warning
+ * is logged.
+ *
+ * @author ruth
+ */
+public class FrameRing {
+
+	private final String name;
+	private final long duration;
+	private final long maxBytes;
+	private final Frame[] frames;
+	private final long[] timestamps;
+	private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+	private int head;
+	private int size;
+	private long firstSequence;
+	private long bytes;
+	private boolean cutShort;
+
+	private static final Logger logger = LoggerFactory.getLogger(FrameRing.class);
+
+	/**
+	 * Create a frame ring.
+	 *
+	 * @param name      The name of the ring, for logging.
+	 * @param duration  How long to keep frames for, in milliseconds.
+	 * @param maxFrames The most frames to keep, whatever their age.
+	 * @param maxBytes  The most frame data to hold, in bytes.
+	 */
+	public FrameRing(String name, long duration, int maxFrames, long maxBytes) {
+		this.name = name;
+		this.duration = duration;
+		this.maxBytes = maxBytes;
+		this.frames = new Frame[maxFrames];
+		this.timestamps = new long[maxFrames];
+	}
+
+	public void add(Frame frame) {
+		frame.retain();
+		int frameSize = getSize(frame);
+		synchronized (this) {
+			// Keep the index in order, even if the clock is set back.
+			long timestamp = size > 0 ? Math.max(frame.getTimestamp(), getTimestamp(size - 1)) : frame.getTimestamp();
+			long oldest = timestamp - duration;
+			while (size > 0 && getTimestamp(0) < oldest) {
+				removeOldest();
+				if (cutShort) {
+					cutShort = false;
+					logger.info("Recent frames for " + name + " cover " + duration / 1000L + "s again");
+				}
+			}
+			while (size > 0 && (size == frames.length || bytes + frameSize > maxBytes)) {
+				removeOldest();
+				if (!cutShort) {
+					cutShort = true;
+					logger.warn("Recent frames for " + name + " limited to " + (size + 1) + " frames and "
+							+ (maxBytes / (1024L * 1024L)) + "MB, covering "
+							+ (timestamp - getOldestTimestamp()) / 1000L + "s rather than " + duration / 1000L + "s");
+				}
+			}
+			int index = (head + size) % frames.length;
+			frames[index] = frame;
+			timestamps[index] = timestamp;
+			bytes += frameSize;
+			size++;
+		}
+		for (Runnable listener : listeners) {
+			listener.run();
+		}
+	}
+
+	/**
+	 * Listen for frames being added to the ring.
+	 *
+	 * @param listener Called after each frame is added, outside any lock.
+	 */
+	public void addListener(Runnable listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Runnable listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Get the frames from a given time onwards, oldest first. The caller must
+	 * release each of them when done.
+	 *
+	 * @param from The earliest timestamp, in milliseconds since the epoch.
+	 * @return The frames.
+	 */
+	public synchronized List<Frame> getFrames(long from) {
+		int first = search(from);
+		List<Frame> list = new ArrayList<>(size - first);
+		for (int i = first; i < size; i++) {
+			list.add(get(i).retain());
+		}
+		return list;
+	}
+
+	/**
+	 * Get the frame nearest to a given time. The caller must release it when
+	 * done.
+	 *
+	 * @param timestamp The time, in milliseconds since the epoch.
+	 * @return The frame, or null if the ring is empty.
+	 */
+	public synchronized Frame getFrameAt(long timestamp) {
+		if (size == 0) {
+			return null;
+		}
+		int index = search(timestamp);
+		if (index == size || (index > 0 && timestamp - getTimestamp(index - 1) < getTimestamp(index) - timestamp)) {
+			index--;
+		}
+		return get(index).retain();
+	}
+
+	/**
+	 * Get the sequence number of the first frame at or after a given time.
+	 *
+	 * @param timestamp The time, in milliseconds since the epoch.
+	 * @return The sequence number, which is that of the next frame to be added
+	 *         if there are no frames that recent.
+	 */
+	public synchronized long getSequence(long timestamp) {
+		return firstSequence + search(timestamp);
+	}
+
+	public synchronized long getFirstSequence() {
+		return firstSequence;
+	}
+
+	/**
+	 * Get a frame by its sequence number. The caller must release it when done.
+	 *
+	 * @param sequence The sequence number.
+	 * @return The frame, or null if it has left the ring or not been added yet.
+	 */
+	public synchronized Frame getFrame(long sequence) {
+		long index = sequence - firstSequence;
+		if (index < 0L || index >= size) {
+			return null;
+		}
+		return get((int) index).retain();
+	}
+
+	/**
+	 * Get the oldest timestamp in the ring.
+	 *
+	 * @return The timestamp, or zero if the ring is empty.
+	 */
+	public synchronized long getOldestTimestamp() {
+		return size > 0 ? getTimestamp(0) : 0L;
+	}
+
+	public synchronized void clear() {
+		while (size > 0) {
+			removeOldest();
+		}
+	}
+
+	private int search(long timestamp) {
+		// The index of the first frame at or after the timestamp.
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (getTimestamp(mid) < timestamp) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private Frame get(int index) {
+		return frames[(head + index) % frames.length];
+	}
+
+	private long getTimestamp(int index) {
+		return timestamps[(head + index) % frames.length];
+	}
+
+	private void removeOldest() {
+		bytes -= getSize(frames[head]);
+		frames[head].release();
+		frames[head] = null;
+		head = (head + 1) % frames.length;
+		firstSequence++;
+		size--;
+	}
+
+	private static int getSize(Frame frame) {
+		return Frame.HEADROOM + frame.getLength();
+	}
+}
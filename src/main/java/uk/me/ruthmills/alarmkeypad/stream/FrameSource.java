@@ -0,0 +1,26 @@
+package uk.me.ruthmills.alarmkeypad.stream;
+
+/**
+ * Somewhere a viewer can take frames from: live from the camera, or replayed
+ * from memory.
+ * 
+ * @author ruth
+ */
+public interface FrameSource {
+
+	/**
+	 * Start taking frames.
+	 * 
+	 * @param capacity The number of frames to queue.
+	 * @param listener Called after each frame is queued.
+	 * @return The queue the frames are put on.
+	 */
+	public FrameQueue subscribe(int capacity, Runnable listener);
+
+	/**
+	 * Stop taking frames, and release any still queued.
+	 * 
+	 * @param queue The queue returned by {@link #subscribe(int, Runnable)}.
+	 */
+	public void unsubscribe(FrameQueue queue);
+}
@@ -0,0 +1,330 @@
+package uk.me.ruthmills.alarmkeypad.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Extracts JPEG frames from a multipart MJPEG stream.
+ *
+ * The stream is read in large chunks into a single reusable buffer, and each
+ * frame is returned as a view onto that buffer, so there is no per-byte
+ * virtual call and no per-frame allocation. When a part header carries a
+ * Content-Length the frame is taken in one go; otherwise the JPEG marker
+ * segments are walked and the entropy-coded data is scanned for EOI eight
+ * bytes at a time.
+ *
+ * @author ruth
+ */
+public class JpegFrameExtractor {
+
+	public static final int DEFAULT_CHUNK_SIZE = 65536;
+	private static final int MAX_HEADER_SIZE = 4096;
+	private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+	private static final int MARKER = 0xFF;
+	private static final int SOI = 0xD8;
+	private static final int EOI = 0xD9;
+	private static final int SOS = 0xDA;
+	private static final int RST0 = 0xD0;
+	private static final int RST7 = 0xD7;
+	private static final int TEM = 0x01;
+
+	private static final byte[] CONTENT_LENGTH = "content-length:".getBytes();
+
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class,
+			ByteOrder.LITTLE_ENDIAN);
+	private static final long ONES = 0x0101010101010101L;
+	private static final long HIGHS = 0x8080808080808080L;
+
+	private enum State {
+		HEADER, CONTENT_LENGTH, SEGMENTS, ENTROPY
+	}
+
+	private final InputStream inputStream;
+	private byte[] buffer;
+	private int position;
+	private int limit;
+
+	private State state = State.HEADER;
+	private int partStart;
+	private int frameStart;
+	private int contentLength;
+
+	private boolean frameReady;
+	private int offset;
+	private int length;
+	private long timestamp;
+	private long captureTime;
+
+	public JpegFrameExtractor(InputStream inputStream) {
+		this(inputStream, DEFAULT_CHUNK_SIZE);
+	}
+
+	public JpegFrameExtractor(InputStream inputStream, int chunkSize) {
+		this.inputStream = inputStream;
+		this.buffer = new byte[chunkSize];
+	}
+
+	/**
+	 * Read the next frame from the stream.
+	 *
+	 * @return True if a frame was read, or false at the end of the stream.
+	 * @throws IOException If the stream could not be read.
+	 */
+	public boolean next() throws IOException {
+		frameReady = false;
+		while (!frameReady) {
+			if (!advance() && !fill()) {
+				if (state != State.CONTENT_LENGTH) {
+					return false;
+				}
+				// The stream ended short of the Content-Length, so the header lied.
+				startSegments();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The buffer holding the current frame. Only valid until the next call to
+	 * {@link #next()}.
+	 *
+	 * @return The buffer.
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * The time at which the start of the current frame was read.
+	 *
+	 * @return The timestamp in milliseconds since the epoch.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * The monotonic time at which the start of the current frame was read, for
+	 * measuring latency.
+	 *
+	 * @return The time from {@link System#nanoTime()}.
+	 */
+	public long getCaptureTime() {
+		return captureTime;
+	}
+
+	private boolean advance() {
+		switch (state) {
+		case HEADER:
+			if (!findStartOfImage()) {
+				return false;
+			}
+			if (contentLength > 0) {
+				state = State.CONTENT_LENGTH;
+			} else {
+				startSegments();
+			}
+			return true;
+		case CONTENT_LENGTH:
+			return readContentLength();
+		case SEGMENTS:
+			return walkSegments();
+		default:
+			return findEndOfImage();
+		}
+	}
+
+	private boolean findStartOfImage() {
+		int index = position;
+		while ((index = indexOfMarker(buffer, index, limit - 1)) >= 0) {
+			if ((buffer[index + 1] & 0xFF) == SOI) {
+				timestamp = System.currentTimeMillis();
+				captureTime = System.nanoTime();
+				contentLength = parseContentLength(buffer, partStart, index);
+				frameStart = index;
+				return true;
+			}
+			index++;
+		}
+		// Keep the last byte in case it is the first half of SOI.
+		position = Math.max(position, limit - 1);
+		if (position - partStart > MAX_HEADER_SIZE) {
+			partStart = position;
+		}
+		return false;
+	}
+
+	private boolean readContentLength() {
+		int frameEnd = frameStart + contentLength;
+		if (limit < frameEnd) {
+			return false;
+		}
+		if ((buffer[frameEnd - 2] & 0xFF) == MARKER && (buffer[frameEnd - 1] & 0xFF) == EOI) {
+			endFrame(frameEnd);
+		} else {
+			// The header lied, so work out the frame boundary the hard way.
+			startSegments();
+		}
+		return true;
+	}
+
+	private void startSegments() {
+		position = frameStart + 2;
+		state = State.SEGMENTS;
+	}
+
+	private boolean walkSegments() {
+		while (position + 2 <= limit) {
+			if ((buffer[position] & 0xFF) != MARKER) {
+				// Not a marker, so this must be entropy-coded data.
+				state = State.ENTROPY;
+				return true;
+			}
+			int marker = buffer[position + 1] & 0xFF;
+			if (marker == MARKER) {
+				// Fill byte.
+				position++;
+			} else if (marker == EOI) {
+				endFrame(position + 2);
+				return true;
+			} else if (marker == TEM || (marker >= RST0 && marker <= RST7)) {
+				position += 2;
+			} else if (position + 4 <= limit) {
+				int segmentLength = ((buffer[position + 2] & 0xFF) << 8) | (buffer[position + 3] & 0xFF);
+				position += 2 + segmentLength;
+				if (marker == SOS) {
+					state = State.ENTROPY;
+					return true;
+				}
+			} else {
+				break;
+			}
+		}
+		return false;
+	}
+
+	private boolean findEndOfImage() {
+		int index = position;
+		while ((index = indexOfMarker(buffer, index, limit - 1)) >= 0) {
+			int marker = buffer[index + 1] & 0xFF;
+			if (marker == EOI) {
+				endFrame(index + 2);
+				return true;
+			} else if (marker != 0x00 && marker != MARKER && (marker < RST0 || marker > RST7)) {
+				// Another marker segment, e.g. the next scan of a progressive JPEG.
+				position = index;
+				state = State.SEGMENTS;
+				return true;
+			}
+			index += (marker == MARKER) ? 1 : 2;
+		}
+		position = Math.max(position, limit - 1);
+		return false;
+	}
+
+	private void endFrame(int frameEnd) {
+		offset = frameStart;
+		length = frameEnd - frameStart;
+		position = frameEnd;
+		partStart = frameEnd;
+		state = State.HEADER;
+		frameReady = true;
+	}
+
+	private boolean fill() throws IOException {
+		if (limit == buffer.length) {
+			int keep = (state == State.HEADER) ? partStart : frameStart;
+			if (keep > 0) {
+				System.arraycopy(buffer, keep, buffer, 0, limit - keep);
+				limit -= keep;
+				position -= keep;
+				partStart -= Math.min(partStart, keep);
+				frameStart -= Math.min(frameStart, keep);
+			} else if (buffer.length >= MAX_FRAME_SIZE) {
+				throw new IOException("Frame larger than " + MAX_FRAME_SIZE + " bytes");
+			} else {
+				byte[] grown = new byte[buffer.length * 2];
+				System.arraycopy(buffer, 0, grown, 0, limit);
+				buffer = grown;
+			}
+		}
+		int read = inputStream.read(buffer, limit, buffer.length - limit);
+		if (read < 0) {
+			return false;
+		}
+		limit += read;
+		return true;
+	}
+
+	/**
+	 * Find the next 0xFF byte, looking at eight bytes at a time.
+	 *
+	 * @param bytes The bytes to search.
+	 * @param from  The index to start at.
+	 * @param to    The index to stop before.
+	 * @return The index of the 0xFF byte, or -1 if there isn't one.
+	 */
+	static int indexOfMarker(byte[] bytes, int from, int to) {
+		int index = from;
+		for (; index + 8 <= to; index += 8) {
+			// A 0xFF byte in the word is a zero byte in its complement.
+			long word = ~(long) LONGS.get(bytes, index);
+			long found = (word - ONES) & ~word & HIGHS;
+			if (found != 0L) {
+				return index + (Long.numberOfTrailingZeros(found) >>> 3);
+			}
+		}
+		for (; index < to; index++) {
+			if (bytes[index] == (byte) MARKER) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	static int parseContentLength(byte[] bytes, int from, int to) {
+		int last = to - CONTENT_LENGTH.length;
+		for (int index = from; index <= last; index++) {
+			if (matchesIgnoreCase(bytes, index, CONTENT_LENGTH)) {
+				int value = 0;
+				int digit = index + CONTENT_LENGTH.length;
+				while (digit < to && bytes[digit] == ' ') {
+					digit++;
+				}
+				while (digit < to && bytes[digit] >= '0' && bytes[digit] <= '9') {
+					value = value * 10 + (bytes[digit++] - '0');
+					if (value > MAX_FRAME_SIZE) {
+						return 0;
+					}
+				}
+				return value;
+			}
+		}
+		return 0;
+	}
+
+	private static boolean matchesIgnoreCase(byte[] bytes, int index, byte[] lowerCase) {
+		for (int i = 0; i < lowerCase.length; i++) {
+			int b = bytes[index + i];
+			if (b >= 'A' && b <= 'Z') {
+				b += 'a' - 'A';
+			}
+			if (b != lowerCase[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,77 @@
+package uk.me.ruthmills.alarmkeypad.stream;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import uk.me.ruthmills.alarmkeypad.model.LatencyMetrics;
+
+/**
+ * Histogram of latencies, in power of two millisecond buckets from 1 ms up to
+ * {@link #MAX_BUCKET_MILLIS}, plus an overflow bucket. Percentiles are
+ * reported as the upper bound of the bucket they fall in.
+ * 
+ * @author ruth
+ */
+public class LatencyHistogram {
+
+	private static final int BUCKETS = 15;
+	private static final long MAX_BUCKET_MILLIS = 1L << (BUCKETS - 1);
+	private static final long NANOS_PER_MILLI = 1000000L;
+
+	private final long[] counts = new long[BUCKETS + 1];
+	private long count;
+	private long sum;
+	private long max;
+
+	/**
+	 * Record a latency.
+	 * 
+	 * @param nanos The latency in nanoseconds.
+	 */
+	public synchronized void record(long nanos) {
+		long latency = Math.max(0L, nanos);
+		counts[getBucket(latency)]++;
+		count++;
+		sum += latency;
+		max = Math.max(max, latency);
+	}
+
+	public synchronized LatencyMetrics getMetrics() {
+		Map<String, Long> buckets = new LinkedHashMap<>();
+		for (int bucket = 0; bucket <= BUCKETS; bucket++) {
+			if (counts[bucket] > 0L) {
+				String label = bucket < BUCKETS ? "<=" + (1L << bucket) + "ms" : ">" + MAX_BUCKET_MILLIS + "ms";
+				buckets.put(label, counts[bucket]);
+			}
+		}
+		return new LatencyMetrics(count, count == 0L ? 0d : toMillis(sum / count), getPercentile(0.5d),
+				getPercentile(0.9d), getPercentile(0.99d), toMillis(max), buckets);
+	}
+
+	private double getPercentile(double fraction) {
+		if (count == 0L) {
+			return 0d;
+		}
+		long rank = (long) Math.ceil(fraction * count);
+		long seen = 0L;
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			seen += counts[bucket];
+			if (seen >= rank) {
+				return Math.min(1L << bucket, toMillis(max));
+			}
+		}
+		return toMillis(max);
+	}
+
+	private static int getBucket(long nanos) {
+		long millis = (nanos + NANOS_PER_MILLI - 1L) / NANOS_PER_MILLI;
+		if (millis <= 1L) {
+			return 0;
+		}
+		return Math.min(BUCKETS, 64 - Long.numberOfLeadingZeros(millis - 1L));
+	}
+
+	private static double toMillis(long nanos) {
+		return nanos / (double) NANOS_PER_MILLI;
+	}
+}
@@ -0,0 +1,38 @@
+package uk.me.ruthmills.alarmkeypad.stream;
+
+/**
+ * Holds the most recent frame from the camera, so that snapshots can be
+ * served without touching the camera.
+ * 
+ * @author ruth
+ */
+public class LatestFrameCache {
+
+	private Frame frame;
+
+	/**
+	 * Replace the cached frame.
+	 * 
+	 * @param frame The new frame.
+	 */
+	public void update(Frame frame) {
+		frame.retain();
+		Frame previous;
+		synchronized (this) {
+			previous = this.frame;
+			this.frame = frame;
+		}
+		if (previous != null) {
+			previous.release();
+		}
+	}
+
+	/**
+	 * Get the cached frame. The caller must release it when done.
+	 * 
+	 * @return The frame, or null if there isn't one yet.
+	 */
+	public synchronized Frame get() {
+		return frame != null ? frame.retain() : null;
+	}
+}
@@ -0,0 +1,223 @@
+package uk.me.ruthmills.alarmkeypad.stream;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.me.ruthmills.alarmkeypad.model.ViewerMetrics;
+
+/**
+ * A connected MJPEG viewer, written to with non-blocking servlet I/O.
+ *
+ * Frames are only written while the socket is ready. When it isn't, the
+ * container calls {@link #onWritePossible()} once it is, and in the meantime
+ * new frames replace old ones in the viewer's queue. No thread is held while a
+ * viewer is waiting.
+ *
+ * Frames can be skipped to cap the frame rate for a viewer. In adaptive mode
+ * the time taken to send each frame is tracked, and frames are skipped so the
+ * viewer is sent no more than its connection can take. On a fast connection
+ * every frame is sent.
+ *
+ * @author ruth
+ */
+public class MjpegViewer implements WriteListener, AsyncListener {
+
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	private final AsyncContext asyncContext;
+	private final ServletOutputStream outputStream;
+	private final Executor executor;
+	private final FrameSource source;
+	private final FrameQueue queue;
+	private final long minFrameInterval;
+	private final boolean adaptive;
+	private final String remoteAddress;
+	private final long connectedTime = System.currentTimeMillis();
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	// True while a write is in progress, or waiting for the socket to be ready.
+	private final AtomicBoolean writing = new AtomicBoolean(true);
+	private final AtomicBoolean closed = new AtomicBoolean();
+	private Frame frame;
+	private int written;
+	private boolean flushNeeded;
+	private boolean sending;
+	private long sendStartTime;
+	private long sendCaptureTime;
+	private long averageSendTime;
+	private long nextFrameTime;
+	private long sentFrames;
+	private long skippedFrames;
+
+	private static final Logger logger = LoggerFactory.getLogger(MjpegViewer.class);
+
+	/**
+	 * Create a viewer.
+	 * 
+	 * @param asyncContext The async context of the viewer's request.
+	 * @param executor     The executor to write frames with.
+	 * @param source       The source to take frames from.
+	 * @param queueSize    The number of frames to queue for the viewer.
+	 * @param maxFps       The maximum frame rate, or zero for no maximum.
+	 * @param adaptive     Whether to skip frames to suit the viewer's connection.
+	 * @throws IOException If the response could not be written to.
+	 */
+	public MjpegViewer(AsyncContext asyncContext, Executor executor, FrameSource source, int queueSize,
+			double maxFps, boolean adaptive) throws IOException {
+		this.asyncContext = asyncContext;
+		this.outputStream = asyncContext.getResponse().getOutputStream();
+		this.executor = executor;
+		this.source = source;
+		this.minFrameInterval = maxFps > 0d ? (long) (NANOS_PER_SECOND / maxFps) : 0L;
+		this.adaptive = adaptive;
+		this.remoteAddress = asyncContext.getRequest().getRemoteAddr();
+		this.queue = source.subscribe(queueSize, this::onFrame);
+	}
+
+	/**
+	 * Start writing to the viewer. The container calls
+	 * {@link #onWritePossible()} as soon as the listener is set.
+	 */
+	public void start() {
+		asyncContext.addListener(this);
+		outputStream.setWriteListener(this);
+	}
+
+	@Override
+	public void onWritePossible() {
+		try {
+			drain();
+		} catch (IOException ex) {
+			onError(ex);
+		}
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		logger.debug("Viewer disconnected", throwable);
+		close();
+	}
+
+	@Override
+	public void onComplete(AsyncEvent event) {
+		close();
+	}
+
+	@Override
+	public void onTimeout(AsyncEvent event) {
+		close();
+	}
+
+	@Override
+	public void onError(AsyncEvent event) {
+		onError(event.getThrowable());
+	}
+
+	@Override
+	public void onStartAsync(AsyncEvent event) {
+	}
+
+	private void onFrame() {
+		if (writing.compareAndSet(false, true)) {
+			executor.execute(this::onWritePossible);
+		}
+	}
+
+	private synchronized void drain() throws IOException {
+		while (!closed.get() && outputStream.isReady()) {
+			if (frame != null) {
+				writeNext();
+			} else if (flushNeeded) {
+				// Flush the loo.
+				flushNeeded = false;
+				outputStream.flush();
+			} else if (sending) {
+				// The socket has taken the whole frame.
+				sending = false;
+				long now = System.nanoTime();
+				long sendTime = now - sendStartTime;
+				averageSendTime = averageSendTime == 0L ? sendTime : (3L * averageSendTime + sendTime) / 4L;
+				latency.record(now - sendCaptureTime);
+				sentFrames++;
+			} else if ((frame = queue.poll()) != null) {
+				if (skipFrame()) {
+					frame.release();
+					frame = null;
+					skippedFrames++;
+					continue;
+				}
+				written = 0;
+			} else {
+				writing.set(false);
+				// A frame may have arrived after the poll but before writing was cleared.
+				if (queue.isEmpty() || !writing.compareAndSet(false, true)) {
+					return;
+				}
+			}
+		}
+	}
+
+	private boolean skipFrame() {
+		long now = System.nanoTime();
+		long frameInterval = Math.max(minFrameInterval, adaptive ? averageSendTime : 0L);
+		if (frameInterval > 0L && now - nextFrameTime < 0L) {
+			return true;
+		}
+		// Keep to the average rate, but don't try to catch up after a gap.
+		nextFrameTime = (now - nextFrameTime > frameInterval) ? now + frameInterval : nextFrameTime + frameInterval;
+		sending = true;
+		sendStartTime = now;
+		sendCaptureTime = frame.getCaptureTime();
+		return false;
+	}
+
+	private void writeNext() throws IOException {
+		// Write the MJPEG header and EXIF-ed image, in one go unless held off-heap.
+		written = frame.writePartTo(outputStream, written);
+		if (written == frame.getPartLength()) {
+			frame.release();
+			frame = null;
+			flushNeeded = true;
+		}
+	}
+
+	public synchronized long getSkippedFrames() {
+		return skippedFrames;
+	}
+
+	public boolean isClosed() {
+		return closed.get();
+	}
+
+	public synchronized ViewerMetrics getMetrics() {
+		return new ViewerMetrics(remoteAddress, connectedTime, sentFrames, skippedFrames, queue.getDroppedFrames(),
+				latency.getMetrics());
+	}
+
+	private void close() {
+		if (closed.compareAndSet(false, true)) {
+			source.unsubscribe(queue);
+			synchronized (this) {
+				if (frame != null) {
+					frame.release();
+					frame = null;
+				}
+			}
+			try {
+				asyncContext.complete();
+			} catch (IllegalStateException ex) {
+				// Already completed.
+			}
+		}
+	}
+}
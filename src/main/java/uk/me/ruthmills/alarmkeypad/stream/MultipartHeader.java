@@ -0,0 +1,53 @@
+package uk.me.ruthmills.alarmkeypad.stream;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The MJPEG multipart header sent before each frame. Everything but the length
+ * digits is encoded once, up front.
+ * 
+ * @author ruth
+ */
+public class MultipartHeader {
+
+	public static final String BOUNDARY = "--boundary";
+
+	private static final String NL = "\r\n";
+	private static final byte[] PREFIX = (NL + NL + BOUNDARY + NL + "Content-Type: image/jpeg" + NL
+			+ "Content-Length: ").getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] SUFFIX = (NL + NL).getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * The longest a header can be.
+	 */
+	public static final int MAX_LENGTH = PREFIX.length + 10 + SUFFIX.length;
+
+	/**
+	 * Write the header for a frame so that it ends at the given index, directly
+	 * in front of the frame.
+	 * 
+	 * @param buffer The buffer to write to.
+	 * @param end    The index to end the header at.
+	 * @param length The length of the frame.
+	 * @return The length of the header.
+	 */
+	public static int encode(ByteBuffer buffer, int end, int length) {
+		int index = end - SUFFIX.length;
+		put(buffer, index, SUFFIX);
+		int value = length;
+		do {
+			buffer.put(--index, (byte) ('0' + value % 10));
+			value /= 10;
+		} while (value > 0);
+		index -= PREFIX.length;
+		put(buffer, index, PREFIX);
+		return end - index;
+	}
+
+	private static void put(ByteBuffer buffer, int index, byte[] bytes) {
+		for (int i = 0; i < bytes.length; i++) {
+			buffer.put(index + i, bytes[i]);
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package uk.me.ruthmills.alarmkeypad.stream;
+
+/**
+ * Counts events, and measures their rate over the last complete one second
+ * window.
+ * 
+ * @author ruth
+ */
+public class RateMeter {
+
+	private static final long WINDOW = 1000000000L;
+
+	private long total;
+	private long count;
+	private long windowStart = System.nanoTime();
+	private double rate;
+
+	public synchronized void mark(long amount) {
+		roll(System.nanoTime());
+		count += amount;
+		total += amount;
+	}
+
+	public synchronized long getTotal() {
+		return total;
+	}
+
+	/**
+	 * Get the rate over the last complete window.
+	 * 
+	 * @return The rate per second.
+	 */
+	public synchronized double getRate() {
+		roll(System.nanoTime());
+		return rate;
+	}
+
+	private void roll(long now) {
+		long elapsed = now - windowStart;
+		if (elapsed >= WINDOW) {
+			// After a quiet spell, average over the whole spell rather than report a stale rate.
+			rate = count * (double) WINDOW / elapsed;
+			count = 0L;
+			windowStart = now;
+		}
+	}
+}
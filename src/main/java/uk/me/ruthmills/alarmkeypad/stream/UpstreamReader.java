@@ -0,0 +1,226 @@
+package uk.me.ruthmills.alarmkeypad.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.BasicHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the MJPEG stream from a camera in its own thread, and owns the
+ * connection to it.
+ *
+ * If the stream fails, the reader reconnects with jittered exponential
+ * backoff, starting again from the minimum delay once frames are flowing. A
+ * watchdog tracks the interval between frames and drops the connection as soon
+ * as the stream stalls, rather than waiting for the read timeout.
+ *
+ * @author ruth
+ */
+public class UpstreamReader implements Runnable {
+
+	/**
+	 * Called on the reader thread for each frame. The buffer is only valid for
+	 * the duration of the call.
+	 */
+	public interface FrameHandler {
+
+		public void onFrame(byte[] buffer, int offset, int length, long timestamp, long captureTime);
+	}
+
+	private static final int CONNECT_TIMEOUT = 1000;
+	private static final int READ_TIMEOUT = 5000;
+	private static final long MIN_BACKOFF = 50L;
+	private static final long MAX_BACKOFF = 1000L;
+	private static final long WATCHDOG_INTERVAL = 100L;
+	private static final long FIRST_FRAME_TIMEOUT = TimeUnit.SECONDS.toNanos(2L);
+	private static final long MIN_STALL_TIME = TimeUnit.MILLISECONDS.toNanos(500L);
+	private static final int STALL_INTERVALS = 4;
+
+	private final String name;
+	private final String streamURL;
+	private final FrameHandler handler;
+
+	private final CloseableHttpClient httpClient;
+	private volatile HttpGet request;
+	private volatile long lastFrameTime;
+	private volatile long averageFrameInterval;
+	private volatile boolean shutdown;
+	private Thread thread;
+	private ScheduledFuture<?> watchdog;
+
+	private final AtomicLong reconnects = new AtomicLong();
+	private final AtomicLong stalls = new AtomicLong();
+	private final RateMeter frameRate = new RateMeter();
+	private final RateMeter byteRate = new RateMeter();
+
+	private static final Logger logger = LoggerFactory.getLogger(UpstreamReader.class);
+
+	public UpstreamReader(String name, String streamURL, FrameHandler handler) {
+		this.name = name;
+		this.streamURL = streamURL;
+		this.handler = handler;
+		RequestConfig config = RequestConfig.custom().setConnectTimeout(CONNECT_TIMEOUT)
+				.setConnectionRequestTimeout(CONNECT_TIMEOUT).setSocketTimeout(READ_TIMEOUT).build();
+		this.httpClient = HttpClientBuilder.create().setConnectionManager(new BasicHttpClientConnectionManager())
+				.setDefaultRequestConfig(config).build();
+	}
+
+	public void start(ScheduledExecutorService watchdogExecutor) {
+		thread = new Thread(this, "mjpeg-reader-" + name);
+		thread.setDaemon(true);
+		thread.start();
+		watchdog = watchdogExecutor.scheduleWithFixedDelay(this::checkStalled, WATCHDOG_INTERVAL, WATCHDOG_INTERVAL,
+				TimeUnit.MILLISECONDS);
+	}
+
+	public void stop() {
+		shutdown = true;
+		if (watchdog != null) {
+			watchdog.cancel(false);
+		}
+		disconnect();
+		if (thread != null) {
+			thread.interrupt();
+		}
+		try {
+			httpClient.close();
+		} catch (IOException ex) {
+			logger.error("Failed to close camera " + name + " connection", ex);
+		}
+	}
+
+	@Override
+	public void run() {
+		long backoff = MIN_BACKOFF;
+		while (!shutdown) {
+			try {
+				if (readStream()) {
+					backoff = MIN_BACKOFF;
+				}
+			} catch (IOException ex) {
+				// Only warn once per outage, rather than on every reconnect attempt.
+				if (shutdown) {
+					// Expected.
+				} else if (backoff == MIN_BACKOFF) {
+					logger.warn("Camera " + name + " stream failed: " + ex);
+				} else {
+					logger.debug("Camera " + name + " stream failed: " + ex);
+				}
+			} catch (Exception ex) {
+				logger.error("Exception in camera " + name + " reader thread", ex);
+			} finally {
+				disconnect();
+			}
+			if (!shutdown) {
+				reconnects.incrementAndGet();
+				try {
+					Thread.sleep(ThreadLocalRandom.current().nextLong(backoff + 1L));
+				} catch (InterruptedException ex) {
+					// Shutting down.
+				}
+				backoff = Math.min(MAX_BACKOFF, backoff * 2L);
+			}
+		}
+	}
+
+	public long getReconnects() {
+		return reconnects.get();
+	}
+
+	public long getStalls() {
+		return stalls.get();
+	}
+
+	/**
+	 * The frames read from the camera.
+	 * 
+	 * @return The frame count and rate.
+	 */
+	public RateMeter getFrameRate() {
+		return frameRate;
+	}
+
+	/**
+	 * The JPEG bytes read from the camera, not counting multipart headers.
+	 * 
+	 * @return The byte count and rate.
+	 */
+	public RateMeter getByteRate() {
+		return byteRate;
+	}
+
+	public boolean isConnected() {
+		return request != null;
+	}
+
+	private boolean readStream() throws IOException {
+		HttpGet get = new HttpGet(streamURL);
+		averageFrameInterval = 0L;
+		lastFrameTime = System.nanoTime();
+		request = get;
+		if (shutdown) {
+			return false;
+		}
+
+		boolean frames = false;
+		try (CloseableHttpResponse response = httpClient.execute(get)) {
+			if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+				throw new IOException("Camera returned " + response.getStatusLine());
+			}
+			InputStream inputStream = response.getEntity().getContent();
+			JpegFrameExtractor extractor = new JpegFrameExtractor(inputStream);
+			while (!shutdown && extractor.next()) {
+				long now = System.nanoTime();
+				if (frames) {
+					long interval = now - lastFrameTime;
+					averageFrameInterval = averageFrameInterval == 0L ? interval
+							: (7L * averageFrameInterval + interval) / 8L;
+				}
+				lastFrameTime = now;
+				frames = true;
+				frameRate.mark(1L);
+				byteRate.mark(extractor.getLength());
+				handler.onFrame(extractor.getBuffer(), extractor.getOffset(), extractor.getLength(),
+						extractor.getTimestamp(), extractor.getCaptureTime());
+			}
+			// Drop the connection rather than reading the rest of an endless stream.
+			get.abort();
+		}
+		return frames;
+	}
+
+	private void checkStalled() {
+		HttpGet get = request;
+		if (get != null) {
+			long interval = averageFrameInterval;
+			long stallTime = interval == 0L ? FIRST_FRAME_TIMEOUT : Math.max(MIN_STALL_TIME, STALL_INTERVALS * interval);
+			if (System.nanoTime() - lastFrameTime > stallTime) {
+				logger.warn("Camera " + name + " stream stalled, reconnecting");
+				stalls.incrementAndGet();
+				lastFrameTime = System.nanoTime();
+				get.abort();
+			}
+		}
+	}
+
+	private void disconnect() {
+		HttpGet get = request;
+		request = null;
+		if (get != null) {
+			get.abort();
+		}
+	}
+}
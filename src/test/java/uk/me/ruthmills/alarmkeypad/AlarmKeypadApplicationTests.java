@@ -1,11 +1,29 @@
 package uk.me.ruthmills.alarmkeypad;
 
+import java.nio.file.Path;
+
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
 
 @SpringBootTest
+@ActiveProfiles("simulation")
 class AlarmKeypadApplicationTests {
 
+	@TempDir
+	static Path directory;
+
+	@DynamicPropertySource
+	static void files(DynamicPropertyRegistry registry) {
+		// Keep the journals and clips out of the working directory.
+		registry.add("events.journal.file", () -> directory.resolve("events.journal").toString());
+		registry.add("command.journal.file", () -> directory.resolve("commands.journal").toString());
+		registry.add("clip.directory", () -> directory.resolve("clips").toString());
+	}
+
 	@Test
 	void contextLoads() {
 	}
@@ -0,0 +1,102 @@
+package uk.me.ruthmills.alarmkeypad.command;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import uk.me.ruthmills.alarmkeypad.model.Command;
+
+class CommandJournalTests {
+
+	private static final long COMPACT_SIZE = 64 * 1024;
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void replaysPendingCommandsAfterReopening() throws IOException {
+		Path file = directory.resolve("commands.journal");
+		CommandJournal journal = new CommandJournal(file, COMPACT_SIZE);
+		assertEquals(0, journal.recover().size());
+		journal.append(new Command(1L, "armed_away", "1234", 1000L));
+		journal.append(new Command(2L, "disarmed", "1234", 2000L));
+		journal.append(new Command(3L, "armed_home", "", 3000L));
+		journal.commit();
+		journal.complete(2L);
+		journal.close();
+
+		CommandJournal reopened = new CommandJournal(file, COMPACT_SIZE);
+		List<Command> commands = reopened.recover();
+		assertEquals(2, commands.size());
+		assertEquals(1L, commands.get(0).getSequence());
+		assertEquals("armed_away", commands.get(0).getState());
+		assertEquals("1234", commands.get(0).getCode());
+		assertEquals(1000L, commands.get(0).getCreatedTime());
+		assertEquals(3L, commands.get(1).getSequence());
+		assertEquals("", commands.get(1).getCode());
+		assertEquals(3L, reopened.getLastSequence());
+		reopened.close();
+	}
+
+	@Test
+	void dropsATornLastRecord() throws IOException {
+		Path file = writeTwoCommands();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3L);
+		}
+		assertRecovered(file, 1L);
+	}
+
+	@Test
+	void dropsACorruptLastRecord() throws IOException {
+		Path file = writeTwoCommands();
+		byte[] bytes = Files.readAllBytes(file);
+		bytes[bytes.length - 6] ^= 0x01;
+		Files.write(file, bytes);
+		assertRecovered(file, 1L);
+	}
+
+	@Test
+	void compactsPastTheThreshold() throws IOException {
+		Path file = directory.resolve("commands.journal");
+		CommandJournal journal = new CommandJournal(file, COMPACT_SIZE);
+		journal.recover();
+		journal.append(new Command(1L, "armed_night", "1234", 1000L));
+		for (long sequence = 2L; sequence <= 3000L; sequence++) {
+			journal.append(new Command(sequence, "armed_away", "1234", 1000L));
+			journal.commit();
+			journal.complete(sequence);
+			journal.commit();
+			assertTrue(Files.size(file) <= COMPACT_SIZE, "Journal not compacted at " + Files.size(file));
+		}
+		journal.close();
+		assertRecovered(file, 1L);
+	}
+
+	private Path writeTwoCommands() throws IOException {
+		Path file = directory.resolve("commands.journal");
+		CommandJournal journal = new CommandJournal(file, COMPACT_SIZE);
+		journal.recover();
+		journal.append(new Command(1L, "armed_away", "1234", 1000L));
+		journal.append(new Command(2L, "disarmed", "1234", 2000L));
+		journal.close();
+		return file;
+	}
+
+	private static void assertRecovered(Path file, long sequence) throws IOException {
+		CommandJournal journal = new CommandJournal(file, COMPACT_SIZE);
+		List<Command> commands = journal.recover();
+		assertEquals(1, commands.size());
+		assertEquals(sequence, commands.get(0).getSequence());
+		journal.close();
+	}
+}
@@ -0,0 +1,98 @@
+package uk.me.ruthmills.alarmkeypad.events;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import uk.me.ruthmills.alarmkeypad.model.JournalEvent;
+
+class EventJournalTests {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void keepsTheLatestEventsAcrossARestart() throws IOException {
+		Path file = directory.resolve("events.journal");
+		EventJournal journal = new EventJournal(file, 8);
+		for (int i = 0; i < 20; i++) {
+			journal.record(EventType.COMMAND_SENT, "armed_away", '\0', i, true);
+		}
+
+		List<JournalEvent> events = new EventJournal(file, 8).read(0L, Long.MAX_VALUE, 0L, 100);
+		assertEquals(8, events.size());
+		assertEquals(13L, events.get(0).getNumber());
+		assertEquals(19L, events.get(7).getSequence());
+		assertEquals("COMMAND_SENT", events.get(7).getType());
+		assertEquals("armed_away", events.get(7).getState());
+	}
+
+	@Test
+	void readsATimeRangeWithoutDigits() throws IOException {
+		EventJournal journal = new EventJournal(directory.resolve("events.journal"), 64);
+		journal.record(EventType.KEY, null, '7', 0L, true);
+		List<JournalEvent> first = journal.read(0L, Long.MAX_VALUE, 0L, 100);
+		journal.record(EventType.KEY, null, 'A', 0L, true);
+		journal.record(EventType.STATE_PUSH, "disarmed", '\0', 0L, true);
+
+		long from = first.get(0).getTime() + 1L;
+		List<JournalEvent> events = journal.read(from, Long.MAX_VALUE, 0L, 100);
+		assertTrue(events.size() >= 1 && events.size() <= 2);
+		assertEquals("disarmed", events.get(events.size() - 1).getState());
+		assertEquals("digit", first.get(0).getKey());
+
+		// Carry on after the first event, whatever its time.
+		assertEquals("A", journal.read(0L, Long.MAX_VALUE, 1L, 1).get(0).getKey());
+	}
+
+	@Test
+	void readsEventsAfterTheClockIsSetBack() throws IOException {
+		Path file = directory.resolve("events.journal");
+		EventJournal journal = new EventJournal(file, 8);
+		for (int i = 1; i <= 5; i++) {
+			journal.record(EventType.COMMAND_SENT, "armed_away", '\0', i, true);
+		}
+		long first = journal.read(0L, Long.MAX_VALUE, 0L, 1).get(0).getTime();
+
+		// Events 4 and 5 recorded after the clock was set back a second.
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0L, channel.size());
+			buffer.putLong(64 + 4 * 32 + 8, first - 1000000000L);
+			buffer.putLong(64 + 5 * 32 + 8, first - 999999999L);
+		}
+
+		List<JournalEvent> events = new EventJournal(file, 8).read(first - 2000000000L, first - 1L, 0L, 100);
+		assertEquals(2, events.size());
+		assertEquals(4L, events.get(0).getSequence());
+		assertEquals(5L, events.get(1).getSequence());
+	}
+
+	@Test
+	void skipsCorruptEvents() throws IOException {
+		Path file = directory.resolve("events.journal");
+		EventJournal journal = new EventJournal(file, 8);
+		for (int i = 1; i <= 3; i++) {
+			journal.record(EventType.STATE_PUSH, "disarmed", '\0', i, true);
+		}
+
+		// A bad type in event 1 and a bad state in event 2.
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0L, channel.size());
+			buffer.put(64 + 32 + 16, (byte) 100);
+			buffer.put(64 + 2 * 32 + 17, (byte) 100);
+		}
+
+		List<JournalEvent> events = new EventJournal(file, 8).read(0L, Long.MAX_VALUE, 0L, 100);
+		assertEquals(1, events.size());
+		assertEquals(3L, events.get(0).getSequence());
+	}
+}
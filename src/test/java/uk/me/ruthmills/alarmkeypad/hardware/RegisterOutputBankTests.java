@@ -0,0 +1,69 @@
+package uk.me.ruthmills.alarmkeypad.hardware;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RegisterOutputBankTests {
+
+	private static final int GPSET0 = 0x1c;
+	private static final int GPCLR0 = 0x28;
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void writesOnlyChangedPinsToTheSetAndClearRegisters() throws IOException {
+		Path file = Files.write(directory.resolve("gpiomem"), new byte[4096]);
+		RegisterOutputBank bank = new RegisterOutputBank(new GpioRegisters(file), new int[] { 2, 3, 4, 8 }, 0b1111);
+
+		bank.setLevels(0b1110);
+		assertEquals(0, readRegister(file, GPSET0));
+		assertEquals(1 << 2, readRegister(file, GPCLR0));
+
+		// Nothing has changed, so nothing is written.
+		writeRegister(file, GPCLR0, 0);
+		bank.setLevels(0b1110);
+		assertEquals(0, readRegister(file, GPCLR0));
+
+		bank.setLevels(0b0111);
+		assertEquals(1 << 2, readRegister(file, GPSET0));
+		assertEquals(1 << 8, readRegister(file, GPCLR0));
+		assertEquals(0b0111, bank.getLevels());
+	}
+
+	@Test
+	void mapsACharacterDevice() throws IOException {
+		// Mapped as /dev/gpiomem would be, which the JVM can't do itself.
+		Path device = Paths.get("/dev/zero");
+		assumeTrue(Files.exists(device) && !Files.isRegularFile(device));
+		GpioRegisters registers = new GpioRegisters(device);
+		registers.write(1 << 2, 1 << 8);
+		assertEquals(0, registers.read());
+	}
+
+	private static int readRegister(Path file, int offset) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			channel.read(buffer, offset);
+			return buffer.getInt(0);
+		}
+	}
+
+	private static void writeRegister(Path file, int offset, int value) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, value), offset);
+		}
+	}
+}
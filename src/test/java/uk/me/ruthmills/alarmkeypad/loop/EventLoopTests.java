@@ -0,0 +1,69 @@
+package uk.me.ruthmills.alarmkeypad.loop;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class EventLoopTests {
+
+	private long now = 1000L;
+	private final EventLoop eventLoop = new EventLoop(() -> now);
+	private final List<String> events = new ArrayList<>();
+
+	@Test
+	void timersFireInDeadlineOrderOnTheVirtualClock() {
+		eventLoop.execute(() -> {
+			eventLoop.schedule(millis(4000L), () -> events.add("4s"));
+			eventLoop.schedule(millis(100L), () -> events.add("100ms"));
+			eventLoop.schedule(millis(30000L), () -> events.add("30s"));
+		});
+		eventLoop.runPending();
+		assertTrue(events.isEmpty());
+
+		advance(99L);
+		assertTrue(events.isEmpty());
+		advance(51L);
+		assertEquals(List.of("100ms"), events);
+
+		// Past a whole turn of the wheel in one go.
+		advance(29850L);
+		assertEquals(List.of("100ms", "4s", "30s"), events);
+	}
+
+	@Test
+	void cancelledTimersDoNotFire() {
+		eventLoop.execute(() -> {
+			Timeout timeout = eventLoop.schedule(millis(5000L), () -> events.add("key timeout"));
+			eventLoop.schedule(millis(1000L), () -> {
+				events.add("key");
+				timeout.cancel();
+			});
+		});
+		eventLoop.runPending();
+		advance(10000L);
+		assertEquals(List.of("key"), events);
+	}
+
+	@Test
+	void postedTasksRunInOrder() {
+		eventLoop.execute(() -> events.add("1"));
+		eventLoop.execute(() -> eventLoop.execute(() -> events.add("3")));
+		eventLoop.execute(() -> events.add("2"));
+		eventLoop.runPending();
+		assertEquals(List.of("1", "2", "3"), events);
+	}
+
+	private void advance(long milliseconds) {
+		now += millis(milliseconds);
+		eventLoop.runPending();
+	}
+
+	private static long millis(long milliseconds) {
+		return TimeUnit.MILLISECONDS.toNanos(milliseconds);
+	}
+}
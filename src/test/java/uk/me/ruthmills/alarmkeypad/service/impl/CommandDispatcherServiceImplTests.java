@@ -0,0 +1,71 @@
+package uk.me.ruthmills.alarmkeypad.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import uk.me.ruthmills.alarmkeypad.command.CommandJournal;
+import uk.me.ruthmills.alarmkeypad.model.Command;
+import uk.me.ruthmills.alarmkeypad.service.EventJournalService;
+
+class CommandDispatcherServiceImplTests {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void dropsJournalledCommandsPastTheirReplayAge() throws IOException {
+		Path file = directory.resolve("commands.journal");
+		long now = System.currentTimeMillis();
+		CommandJournal journal = new CommandJournal(file, 64 * 1024);
+		journal.recover();
+		journal.append(new Command(1L, "armed_away", "1234", now - 60000L));
+		journal.append(new Command(2L, "armed_home", "1234", now));
+		journal.close();
+
+		EventJournalService eventJournalService = mock(EventJournalService.class);
+		CommandDispatcherServiceImpl dispatcher = new CommandDispatcherServiceImpl();
+		ReflectionTestUtils.setField(dispatcher, "eventPublisher", mock(ApplicationEventPublisher.class));
+		ReflectionTestUtils.setField(dispatcher, "eventJournalService", eventJournalService);
+		// Nothing listens here, so every send fails straight away.
+		ReflectionTestUtils.setField(dispatcher, "endpoint", "http://127.0.0.1:1/alarm");
+		ReflectionTestUtils.setField(dispatcher, "token", "token");
+		ReflectionTestUtils.setField(dispatcher, "maxAttempts", 1);
+		ReflectionTestUtils.setField(dispatcher, "maxAgeSeconds", 30);
+		ReflectionTestUtils.setField(dispatcher, "failureThreshold", 3);
+		ReflectionTestUtils.setField(dispatcher, "openSeconds", 30);
+		ReflectionTestUtils.setField(dispatcher, "maxIdleSeconds", 50);
+		ReflectionTestUtils.setField(dispatcher, "warmSeconds", 10);
+		ReflectionTestUtils.setField(dispatcher, "journalFile", file.toString());
+		ReflectionTestUtils.setField(dispatcher, "maxReplayAgeSeconds", 30);
+		dispatcher.initialise();
+		try {
+			// Sending a command sends everything held back before it.
+			dispatcher.dispatch("validate", "1234");
+			verify(eventJournalService, timeout(5000L)).commandSent("armed_home", 2L);
+			verify(eventJournalService, never()).commandSent(eq("armed_away"), anyLong());
+		} finally {
+			dispatcher.shutdown();
+		}
+
+		// Only the command still in date is kept for later.
+		CommandJournal reopened = new CommandJournal(file, 64 * 1024);
+		List<Command> commands = reopened.recover();
+		assertEquals(1, commands.size());
+		assertEquals(2L, commands.get(0).getSequence());
+		reopened.close();
+	}
+}
@@ -0,0 +1,118 @@
+package uk.me.ruthmills.alarmkeypad.stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import uk.me.ruthmills.alarmkeypad.model.AlarmState;
+
+class ExifStamperTests {
+
+	private static final long TIMESTAMP = 1600000000123L;
+
+	@Test
+	void keepsTheCamerasTags() throws IOException {
+		byte[] image = readFrame();
+		ByteBuffer output = ByteBuffer.allocate(image.length + 1024);
+		int length = ExifStamper.stamp(image, 0, image.length, TIMESTAMP, AlarmState.ARMED_AWAY, output);
+		assertEquals(ExifStamper.getStampedLength(image, 0, image.length), length);
+
+		// The JFIF segment still comes first, and the EXIF segment goes where the camera's was.
+		byte[] stamped = Arrays.copyOf(output.array(), length);
+		assertArrayEquals(Arrays.copyOf(image, 0x14), Arrays.copyOf(stamped, 0x14));
+		Map<Integer, String> tags = readTags(stamped, 0x14);
+		assertEquals("Raspberry Pi", tags.get(0x010F));
+		assertEquals("RP_ov5647", tags.get(0x0110));
+		assertEquals("armed_away", tags.get(0x010E));
+		assertEquals(Long.toString(TIMESTAMP), tags.get(0xFDE8));
+
+		// The rest of the frame is untouched.
+		int rest = 0x14 + 2 + getShort(image, 0x16);
+		int stampedRest = 0x14 + 2 + getShort(stamped, 0x16);
+		assertArrayEquals(Arrays.copyOfRange(image, rest, image.length),
+				Arrays.copyOfRange(stamped, stampedRest, length));
+	}
+
+	@Test
+	void addsASegmentWhenThereIsNone() throws IOException {
+		byte[] camera = readFrame();
+		int exifEnd = 0x14 + 2 + getShort(camera, 0x16);
+		byte[] image = new byte[camera.length - (exifEnd - 0x14)];
+		System.arraycopy(camera, 0, image, 0, 0x14);
+		System.arraycopy(camera, exifEnd, image, 0x14, camera.length - exifEnd);
+
+		ByteBuffer output = ByteBuffer.allocate(image.length + 1024);
+		int length = ExifStamper.stamp(image, 0, image.length, TIMESTAMP, null, output);
+		assertEquals(ExifStamper.getStampedLength(image, 0, image.length), length);
+		Map<Integer, String> tags = readTags(output.array(), 2);
+		assertEquals("unknown", tags.get(0x010E));
+		assertEquals(Long.toString(TIMESTAMP), tags.get(0xFDE8));
+	}
+
+	@Test
+	void replacesASegmentItCannotRead() throws IOException {
+		byte[] image = readFrame();
+		// Neither II nor MM.
+		image[0x14 + 10] = 'X';
+
+		ByteBuffer output = ByteBuffer.allocate(image.length + 1024);
+		int length = ExifStamper.stamp(image, 0, image.length, TIMESTAMP, AlarmState.DISARMED, output);
+		assertEquals(ExifStamper.getStampedLength(image, 0, image.length), length);
+		Map<Integer, String> tags = readTags(output.array(), 2);
+		assertEquals("disarmed", tags.get(0x010E));
+		assertEquals(null, tags.get(0x010F));
+	}
+
+	private static byte[] readFrame() throws IOException {
+		try (InputStream inputStream = ExifStamperTests.class.getResourceAsStream("/frames/frame0.jpg")) {
+			return inputStream.readAllBytes();
+		}
+	}
+
+	private static int getShort(byte[] image, int pos) {
+		return ((image[pos] & 0xFF) << 8) | (image[pos + 1] & 0xFF);
+	}
+
+	/**
+	 * Read the ASCII tags from the first and EXIF directories of an APP1
+	 * segment.
+	 */
+	private static Map<Integer, String> readTags(byte[] image, int segment) {
+		int tiff = segment + 10;
+		ByteBuffer buffer = ByteBuffer.wrap(image, tiff, getShort(image, segment + 2) - 8).slice();
+		buffer.order(image[tiff] == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+		Map<Integer, String> tags = new HashMap<>();
+		readDirectory(buffer, buffer.getInt(4), tags);
+		return tags;
+	}
+
+	private static void readDirectory(ByteBuffer buffer, int ifd, Map<Integer, String> tags) {
+		int count = buffer.getShort(ifd);
+		for (int i = 0; i < count; i++) {
+			int entry = ifd + 2 + i * 12;
+			int tag = buffer.getShort(entry) & 0xFFFF;
+			int type = buffer.getShort(entry + 2);
+			int length = buffer.getInt(entry + 4);
+			int value = buffer.getInt(entry + 8);
+			if (tag == 0x8769) {
+				readDirectory(buffer, value, tags);
+			} else if (type == 2) {
+				byte[] bytes = new byte[length - 1];
+				for (int j = 0; j < bytes.length; j++) {
+					bytes[j] = buffer.get((length > 4 ? value : entry + 8) + j);
+				}
+				tags.put(tag, new String(bytes, StandardCharsets.US_ASCII));
+			}
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package uk.me.ruthmills.alarmkeypad.stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class JpegFrameExtractorTests {
+
+	private static final int CHUNK_SIZE = 1024;
+
+	@Test
+	void extractsFramesWithContentLength() throws IOException {
+		List<byte[]> frames = readFrames();
+		assertFrames(frames, extract(toMultipart(frames, 0), 700));
+	}
+
+	@Test
+	void extractsFramesWithoutContentLength() throws IOException {
+		List<byte[]> frames = readFrames();
+		assertFrames(frames, extract(toMultipart(frames, -1), 700));
+	}
+
+	@Test
+	void extractsFramesWhenContentLengthIsWrong() throws IOException {
+		List<byte[]> frames = readFrames();
+		assertFrames(frames, extract(toMultipart(frames, -10), 700));
+		assertFrames(frames, extract(toMultipart(frames, 10), 700));
+	}
+
+	@Test
+	void extractsFramesAtEveryReadSize() throws IOException {
+		// Split the frames, and their markers, at every point across a chunk.
+		List<byte[]> frames = Arrays.asList(getProgressiveFrame(), getProgressiveFrame());
+		for (int readSize = 1; readSize <= 40; readSize++) {
+			assertFrames(frames, extract(toMultipart(frames, -1), readSize));
+			assertFrames(frames, extract(toMultipart(frames, 0), readSize));
+		}
+	}
+
+	@Test
+	void extractsProgressiveFrames() throws IOException {
+		List<byte[]> frames = new ArrayList<>(readFrames());
+		frames.add(1, getProgressiveFrame());
+		assertFrames(frames, extract(toMultipart(frames, -1), CHUNK_SIZE));
+	}
+
+	@Test
+	void findsMarkersAtEveryOffset() {
+		for (int marker = 0; marker < 16; marker++) {
+			byte[] bytes = new byte[24];
+			// Bytes either side of 0xFF, to catch borrows between bytes.
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = (byte) (i % 2 == 0 ? 0xFE : 0x00);
+			}
+			bytes[marker] = (byte) 0xFF;
+			for (int from = 0; from <= marker; from++) {
+				assertEquals(marker, JpegFrameExtractor.indexOfMarker(bytes, from, bytes.length));
+				// Just the tail loop.
+				assertEquals(marker, JpegFrameExtractor.indexOfMarker(bytes, from, marker + 1));
+			}
+			assertEquals(-1, JpegFrameExtractor.indexOfMarker(bytes, 0, marker));
+			assertEquals(-1, JpegFrameExtractor.indexOfMarker(bytes, marker + 1, bytes.length));
+		}
+	}
+
+	private static void assertFrames(List<byte[]> expected, List<byte[]> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertArrayEquals(expected.get(i), actual.get(i), "Frame " + i);
+		}
+	}
+
+	private static List<byte[]> extract(byte[] multipart, int readSize) throws IOException {
+		JpegFrameExtractor extractor = new JpegFrameExtractor(new TrickleInputStream(multipart, readSize),
+				CHUNK_SIZE);
+		List<byte[]> frames = new ArrayList<>();
+		while (extractor.next()) {
+			assertTrue(extractor.getTimestamp() > 0L);
+			frames.add(Arrays.copyOfRange(extractor.getBuffer(), extractor.getOffset(),
+					extractor.getOffset() + extractor.getLength()));
+		}
+		assertFalse(extractor.next());
+		return frames;
+	}
+
+	private static List<byte[]> readFrames() throws IOException {
+		List<byte[]> frames = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			try (InputStream inputStream = JpegFrameExtractorTests.class
+					.getResourceAsStream("/frames/frame" + i + ".jpg")) {
+				frames.add(inputStream.readAllBytes());
+			}
+		}
+		return frames;
+	}
+
+	/**
+	 * Build an MJPEG multipart stream, as sent by the camera.
+	 *
+	 * @param frames     The frames.
+	 * @param lengthSkew Added to each Content-Length, or -1 for none.
+	 */
+	private static byte[] toMultipart(List<byte[]> frames, int lengthSkew) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		for (byte[] frame : frames) {
+			StringBuilder header = new StringBuilder("--boundarydonotcross\r\nContent-Type: image/jpeg\r\n");
+			if (lengthSkew != -1) {
+				header.append("Content-Length: ").append(frame.length + lengthSkew).append("\r\n");
+			}
+			header.append("X-Timestamp: 1603000000.000000\r\n\r\n");
+			outputStream.write(header.toString().getBytes(StandardCharsets.US_ASCII));
+			outputStream.write(frame);
+			outputStream.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+		}
+		return outputStream.toByteArray();
+	}
+
+	/**
+	 * A frame with two scans, as in a progressive JPEG, with stuffed bytes,
+	 * restart markers and fill bytes in the entropy-coded data.
+	 */
+	private static byte[] getProgressiveFrame() {
+		return toBytes(0xFF, 0xD8, // SOI
+				0xFF, 0xE0, 0x00, 0x06, 'J', 'F', 'I', 'F', // APP0
+				0xFF, 0xDA, 0x00, 0x04, 0x01, 0x02, // SOS
+				0x12, 0xFF, 0x00, 0x34, 0xFF, 0xD0, 0x56, 0xFF, 0xFF, 0xD1, 0x78, 0x9A, 0xBC, 0xDE, 0xF0, 0x11,
+				0xFF, 0xC4, 0x00, 0x03, 0x00, // DHT
+				0xFF, 0xFF, 0xDA, 0x00, 0x03, 0x01, // Fill byte then SOS
+				0x22, 0x33, 0xFF, 0x00, 0x44, 0xFF, 0xD7, 0x55, 0x66, 0x77, 0x88, 0x99, //
+				0xFF, 0xD9); // EOI
+	}
+
+	private static byte[] toBytes(int... values) {
+		byte[] bytes = new byte[values.length];
+		for (int i = 0; i < values.length; i++) {
+			bytes[i] = (byte) values[i];
+		}
+		return bytes;
+	}
+
+	/**
+	 * Gives up its bytes a few at a time, as a socket might.
+	 */
+	private static class TrickleInputStream extends ByteArrayInputStream {
+
+		private final int readSize;
+
+		private TrickleInputStream(byte[] bytes, int readSize) {
+			super(bytes);
+			this.readSize = readSize;
+		}
+
+		@Override
+		public synchronized int read(byte[] bytes, int offset, int length) {
+			return super.read(bytes, offset, Math.min(length, readSize));
+		}
+	}
+}